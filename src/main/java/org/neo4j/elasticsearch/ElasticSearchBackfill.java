@@ -0,0 +1,199 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Get;
+import io.searchbox.core.Index;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings existing nodes into new or changed index specs. A fingerprint of every spec is stored
+ * with the checkpoint; specs whose fingerprint differs are backfilled by walking the node store
+ * in the background, at most nodesPerSecond documents per tick. The position is stored after
+ * every step, so a restart continues where the last run stopped.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchBackfill {
+    static final String TYPE = "spec";
+    static final long COMPLETE = -1;
+    private static final int SCAN_PER_TICK = 100000;
+
+    /** A spec to be backfilled and the next node id to look at. */
+    private static class Job {
+        final Label label;
+        final ElasticSearchIndexSpec spec;
+        final String id;
+        final String fingerprint;
+        long next;
+        // the routing property changed, copies under the old routing have to be deleted
+        boolean rerouted;
+
+        Job(Label label, ElasticSearchIndexSpec spec, long next) {
+            this.label = label;
+            this.spec = spec;
+            this.id = spec.getIndexName() + ":" + label.name();
+            this.fingerprint = spec.fingerprint(label);
+            this.next = next;
+        }
+    }
+
+    private final ElasticSearchCluster cluster;
+    private final ElasticSearchEventHandler handler;
+    private final Map<Label, List<ElasticSearchIndexSpec>> indexSpecs;
+    private final GraphDatabaseAPI db;
+    private final StringLogger logger;
+    private final int nodesPerSecond;
+    private List<Job> jobs;
+
+    ElasticSearchBackfill(ElasticSearchCluster cluster, ElasticSearchEventHandler handler,
+                          Map<Label, List<ElasticSearchIndexSpec>> indexSpecs, GraphDatabaseService db,
+                          StringLogger logger, int nodesPerSecond) {
+        this.cluster = cluster;
+        this.handler = handler;
+        this.indexSpecs = indexSpecs;
+        this.db = (GraphDatabaseAPI) db;
+        this.logger = logger;
+        this.nodesPerSecond = Math.max(1, nodesPerSecond);
+    }
+
+    /** Called periodically: finds the specs to backfill on the first run, then backfills one step. */
+    void tick() {
+        try {
+            if (jobs == null) jobs = jobs();
+            if (jobs.isEmpty()) return;
+            Job job = jobs.get(0);
+            step(job);
+            if (job.next == COMPLETE) {
+                logger.info("ElasticSearch " + cluster.getName() + ": backfill of " + job.id + " complete");
+                jobs.remove(0);
+            }
+        } catch (Exception e) {
+            logger.warn("ElasticSearch " + cluster.getName() + ": backfill failed, will retry", e);
+        }
+    }
+
+    boolean isDone() {
+        return jobs != null && jobs.isEmpty();
+    }
+
+    private List<Job> jobs() throws Exception {
+        List<Job> result = new ArrayList<>();
+        for (Map.Entry<Label, List<ElasticSearchIndexSpec>> e : indexSpecs.entrySet()) {
+            for (ElasticSearchIndexSpec spec : e.getValue()) {
+                if (!cluster.accepts(spec.getIndexName())) continue;
+                Job job = new Job(e.getKey(), spec, 0);
+                Map stored = load(job.id);
+                boolean unfinished = stored != null && ((Number) stored.get("next_node")).longValue() != COMPLETE;
+                job.rerouted = stored != null && (Boolean.TRUE.equals(stored.get("rerouted")) && unfinished
+                        || !equal(spec.getRouting(), stored.get("routing")));
+                if (stored != null && job.fingerprint.equals(stored.get("fingerprint"))) {
+                    job.next = ((Number) stored.get("next_node")).longValue();
+                    if (job.next == COMPLETE) continue;
+                    logger.info("ElasticSearch " + cluster.getName() + ": resuming backfill of " + job.id + " at node " + job.next);
+                } else {
+                    logger.info("ElasticSearch " + cluster.getName() + ": " + (stored == null ? "new" : "changed")
+                            + " index spec " + spec + ", backfilling " + job.id
+                            + (job.rerouted ? ", deleting documents under the previous routing" : ""));
+                    save(job);
+                }
+                result.add(job);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends the documents of the next nodes with the label, at most nodesPerSecond, and looks
+     * at no more than SCAN_PER_TICK node ids.
+     */
+    private void step(Job job) throws Exception {
+        long highId = highNodeId(db);
+        List<Long> nodeIds = new ArrayList<>(nodesPerSecond);
+        long id = job.next;
+        try (Transaction tx = db.beginTx()) {
+            for (long end = Math.min(highId, id + SCAN_PER_TICK); id < end && nodeIds.size() < nodesPerSecond; id++) {
+                try {
+                    Node node = db.getNodeById(id);
+                    if (node.hasLabel(job.label)) nodeIds.add(id);
+                } catch (NotFoundException e) {
+                    // unused id
+                }
+            }
+            tx.success();
+        }
+        send(job, nodeIds);
+        job.next = id >= highId ? COMPLETE : id;
+        save(job);
+    }
+
+    /** Only the documents of the job's spec; deletes of nodes that don't match its predicates included. */
+    private void send(Job job, Collection<Long> nodeIds) throws Exception {
+        if (nodeIds.isEmpty()) return;
+        Collection<BulkableAction> actions = new ArrayList<>();
+        for (BulkableAction action : handler.replayRequests(nodeIds)) {
+            if (job.spec.getIndexName().equals(action.getIndex()) && job.label.name().equals(action.getType())) {
+                actions.add(action);
+            }
+        }
+        if (job.rerouted) {
+            JestResult result = cluster.getClient().execute(
+                    ElasticSearchEventHandler.deleteByIds(nodeIds, job.spec.getIndexName(), job.label.name()));
+            if (!result.isSucceeded()) {
+                throw new IllegalStateException("ElasticSearch rejected backfill delete: " + result.getErrorMessage());
+            }
+        }
+        actions = cluster.select(actions);
+        if (actions.isEmpty()) return;
+        if (!cluster.executeBulk(actions)) {
+            throw new IllegalStateException("ElasticSearch rejected backfill bulk");
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static long highNodeId(GraphDatabaseAPI db) {
+        return db.getDependencyResolver().resolveDependency(IdGeneratorFactory.class).get(IdType.NODE).getHighId();
+    }
+
+    private Map load(String id) throws Exception {
+        JestResult result = cluster.getClient().execute(new Get.Builder(ElasticSearchCheckpoint.INDEX, id).type(TYPE).build());
+        if (!result.isSucceeded()) {
+            Object status = result.getValue("status");
+            if (Boolean.FALSE.equals(result.getValue("found"))
+                    || (status instanceof Number && ((Number) status).intValue() == 404)) return null;
+            throw new IllegalStateException("Can't read state of " + id + ": " + result.getErrorMessage());
+        }
+        return result.getSourceAsObject(Map.class);
+    }
+
+    private void save(Job job) throws Exception {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("fingerprint", job.fingerprint);
+        state.put("next_node", job.next);
+        state.put("routing", job.spec.getRouting());
+        state.put("rerouted", job.rerouted);
+        JestResult result = cluster.getClient().execute(new Index.Builder(state)
+                .index(ElasticSearchCheckpoint.INDEX).type(TYPE).id(job.id).build());
+        if (!result.isSucceeded()) {
+            throw new IllegalStateException("Can't write state of " + job.id + ": " + result.getErrorMessage());
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.DeleteByQuery;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Label;
+import org.neo4j.helpers.collection.Visitor;
+import org.neo4j.kernel.impl.core.LabelTokenHolder;
+import org.neo4j.kernel.impl.core.Token;
+import org.neo4j.kernel.impl.store.NodeLabelsField;
+import org.neo4j.kernel.impl.store.record.NodeRecord;
+import org.neo4j.kernel.impl.transaction.CommittedTransactionRepresentation;
+import org.neo4j.kernel.impl.transaction.command.Command;
+import org.neo4j.kernel.impl.transaction.log.IOCursor;
+import org.neo4j.kernel.impl.transaction.log.LogicalTransactionStore;
+import org.neo4j.kernel.impl.transaction.log.NoSuchTransactionException;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replays the transactions ElasticSearch missed, e.g. while the extension was disabled or
+ * the cluster unreachable. The node ids touched by those transactions are read from the
+ * logical log and their current state is sent to ElasticSearch, so the cost depends on the
+ * number of missed changes and not on the size of the graph.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchCatchUp {
+    // nodes per batch shipped by the master, well below the default queue size of the cluster
+    private static final int SHIP_BATCH_NODES = 5000;
+
+    private final ElasticSearchCluster cluster;
+    private final ElasticSearchEventHandler handler;
+    private final ElasticSearchTransactionTracker tracker;
+    private final ElasticSearchCheckpoint checkpoint;
+    private final LogicalTransactionStore txStore;
+    private final LabelTokenHolder labelTokens;
+    private final StringLogger logger;
+    private final int nodesPerSecond;
+    private volatile boolean recovered = false;
+    private ElasticSearchHaRole role;
+    private boolean master = false;
+    private boolean shipping = false;
+    private ElasticSearchTransactionTracker.Ticket position;
+
+    ElasticSearchCatchUp(ElasticSearchCluster cluster, ElasticSearchEventHandler handler, ElasticSearchCheckpoint checkpoint,
+                         LogicalTransactionStore txStore, LabelTokenHolder labelTokens, StringLogger logger, int nodesPerSecond) {
+        this.cluster = cluster;
+        this.handler = handler;
+        this.tracker = cluster.getTracker();
+        this.checkpoint = checkpoint;
+        this.txStore = txStore;
+        this.labelTokens = labelTokens;
+        this.logger = logger;
+        this.nodesPerSecond = Math.max(1, nodesPerSecond);
+    }
+
+    /**
+     * Called periodically: replays from the stored checkpoint until that succeeded once, afterwards
+     * replays the transactions of failed bulk requests and stores the delivered transaction id.
+     */
+    void tick() {
+        if (role != null) {
+            follow();
+            return;
+        }
+        try {
+            if (!recovered) {
+                long from = checkpoint.load();
+                if (from != ElasticSearchCheckpoint.NONE) {
+                    replay(from, tracker.failure());
+                }
+                recovered = true;
+            } else if (tracker.hasFailures()) {
+                replay(tracker.delivered(), tracker.failure());
+            }
+            checkpoint.save(tracker.delivered());
+        } catch (NoSuchTransactionException e) {
+            logger.error("ElasticSearch " + cluster.getName() + ": transaction logs don't reach back to the last delivered " +
+                    "transaction, run elasticsearch-index to re-import", e);
+            recovered = true;
+        } catch (Exception e) {
+            logger.warn("ElasticSearch " + cluster.getName() + ": catch-up failed, will retry", e);
+        }
+    }
+
+    /**
+     * Ships changes from the logical log instead of on commit, and only while this instance is
+     * the master of an HA cluster. Transactions written on slaves reach the master's log without
+     * passing its transaction event handler, so the log is the only place that sees them all.
+     */
+    void follow(ElasticSearchHaRole role) {
+        this.role = role;
+    }
+
+    /**
+     * As master, sends the transactions committed since the last tick and stores the checkpoint.
+     * As slave, only reads the checkpoint the master stored, so the watermark of this instance
+     * reflects what was shipped. A new master takes over from that checkpoint with a replay at
+     * the catch-up rate, as do failed bulks; otherwise changes are shipped like commits are.
+     */
+    private void follow() {
+        try {
+            boolean isMaster = role.isMaster();
+            if (isMaster != master) {
+                logger.info("ElasticSearch " + cluster.getName() + ": " + (isMaster ? "master, shipping changes" : "no longer master, stopped shipping changes"));
+                master = isMaster;
+                recovered = false;
+                shipping = false;
+            }
+            if (!master || !recovered) {
+                long shipped = checkpoint.load();
+                if (shipped == ElasticSearchCheckpoint.NONE) shipped = tracker.lastCommitted();
+                if (position == null) {
+                    position = tracker.pin(shipped);
+                } else {
+                    tracker.advance(position, shipped);
+                }
+                recovered = master;
+                if (!master) return;
+            }
+            if (shipping && !tracker.hasFailures()) {
+                ship(position.baseline);
+            } else {
+                replay(tracker.delivered(), tracker.failure());
+                shipping = true;
+            }
+            checkpoint.save(tracker.delivered());
+        } catch (NoSuchTransactionException e) {
+            logger.error("ElasticSearch " + cluster.getName() + ": transaction logs don't reach back to the last delivered " +
+                    "transaction, run elasticsearch-index to re-import", e);
+            tracker.advance(position, tracker.lastCommitted());
+        } catch (Exception e) {
+            logger.warn("ElasticSearch " + cluster.getName() + ": shipping changes failed, will retry", e);
+        }
+    }
+
+    void saveCheckpoint() {
+        if (!recovered) return;
+        try {
+            checkpoint.save(tracker.delivered());
+        } catch (Exception e) {
+            logger.warn("ElasticSearch " + cluster.getName() + ": can't store checkpoint", e);
+        }
+    }
+
+    /** @param failure the failed transactions the replay covers, null if none */
+    private void replay(long from, ElasticSearchTransactionTracker.Ticket failure) throws Exception {
+        long to = tracker.lastCommitted();
+        if (from >= to) return;
+        if (role == null) logger.info("ElasticSearch " + cluster.getName() + ": catching up on transactions " + (from + 1) + " to " + to);
+
+        // when following, the position holds the watermark between ticks, too
+        ElasticSearchTransactionTracker.Ticket ticket = position != null ? position : tracker.pin(from);
+        try {
+            Set<Long> nodeIds = new LinkedHashSet<>();
+            Visitor<Command, IOException> collector = nodeCollector(nodeIds);
+            try (IOCursor<CommittedTransactionRepresentation> cursor = txStore.getTransactions(from + 1)) {
+                while (cursor.next()) {
+                    CommittedTransactionRepresentation tx = cursor.get();
+                    long txId = tx.getCommitEntry().getTxId();
+                    if (txId > to) break;
+                    tx.accept(collector);
+                    if (nodeIds.size() >= nodesPerSecond) {
+                        send(nodeIds);
+                        tracker.advance(ticket, txId);
+                        checkpoint.save(tracker.delivered());
+                    }
+                }
+            }
+            send(nodeIds);
+            if (ticket == position) {
+                tracker.advance(ticket, to);
+            } else {
+                tracker.done(ticket);
+            }
+            if (failure != null) tracker.done(failure);
+        } catch (Exception e) {
+            if (ticket != position) tracker.failed(ticket);
+            throw e;
+        }
+        if (role == null) logger.info("ElasticSearch " + cluster.getName() + ": caught up to transaction " + to);
+    }
+
+    /**
+     * Hands the transactions after from to the cluster the way the event handler does on commit:
+     * asynchronously through the scheduler, without the catch-up rate. Only the deletes from routed
+     * indexes are sent right away, ahead of the batch. Each batch pins the watermark until it is
+     * delivered; failed ones are picked up by a replay on the next tick.
+     */
+    private void ship(long from) throws Exception {
+        long to = tracker.lastCommitted();
+        if (from >= to) return;
+        Set<Long> nodeIds = new LinkedHashSet<>();
+        Map<Long, Set<Label>> lost = new HashMap<>();
+        Visitor<Command, IOException> collector = shipCollector(nodeIds, lost);
+        long shipped = from;
+        try (IOCursor<CommittedTransactionRepresentation> cursor = txStore.getTransactions(from + 1)) {
+            while (cursor.next()) {
+                CommittedTransactionRepresentation tx = cursor.get();
+                long txId = tx.getCommitEntry().getTxId();
+                if (txId > to) break;
+                tx.accept(collector);
+                if (nodeIds.size() >= SHIP_BATCH_NODES) {
+                    ship(nodeIds, lost, shipped);
+                    shipped = txId;
+                    tracker.advance(position, shipped);
+                }
+            }
+        }
+        ship(nodeIds, lost, shipped);
+        tracker.advance(position, to);
+    }
+
+    private void ship(Set<Long> nodeIds, Map<Long, Set<Label>> lost, long from) throws Exception {
+        if (nodeIds.isEmpty()) return;
+        deleteRoutedCopies(nodeIds);
+        cluster.send(cluster.select(handler.shipRequests(nodeIds, lost, cluster)), tracker.pin(from), true);
+        nodeIds.clear();
+        lost.clear();
+    }
+
+    /** @return the ids of the nodes touched by the transactions after from up to and including to */
+    static Set<Long> changedNodes(LogicalTransactionStore txStore, long from, long to) throws IOException {
+        Set<Long> nodeIds = new LinkedHashSet<>();
+        if (from >= to) return nodeIds;
+        Visitor<Command, IOException> collector = nodeCollector(nodeIds);
+        try (IOCursor<CommittedTransactionRepresentation> cursor = txStore.getTransactions(from + 1)) {
+            while (cursor.next()) {
+                CommittedTransactionRepresentation tx = cursor.get();
+                if (tx.getCommitEntry().getTxId() > to) break;
+                tx.accept(collector);
+            }
+        }
+        return nodeIds;
+    }
+
+    private static Visitor<Command, IOException> nodeCollector(final Set<Long> nodeIds) {
+        return new Visitor<Command, IOException>() {
+            @Override
+            public boolean visit(Command command) {
+                if (command instanceof Command.NodeCommand) {
+                    nodeIds.add(command.getKey());
+                } else if (command instanceof Command.PropertyCommand) {
+                    long nodeId = ((Command.PropertyCommand) command).getNodeId();
+                    if (nodeId != -1) nodeIds.add(nodeId);
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Collects the touched nodes like {@link #nodeCollector(Set)}, and the labels they lost from
+     * the node records before and after each transaction. Labels stored outside the record, on
+     * nodes with many of them, may not be in the log; then the node maps to null.
+     */
+    private Visitor<Command, IOException> shipCollector(final Set<Long> nodeIds, final Map<Long, Set<Label>> lost) {
+        final Visitor<Command, IOException> nodes = nodeCollector(nodeIds);
+        return new Visitor<Command, IOException>() {
+            @Override
+            public boolean visit(Command command) throws IOException {
+                nodes.visit(command);
+                if (command instanceof Command.NodeCommand) {
+                    collectLost((Command.NodeCommand) command, lost);
+                }
+                return false;
+            }
+        };
+    }
+
+    private void collectLost(Command.NodeCommand command, Map<Long, Set<Label>> lost) {
+        long nodeId = command.getKey();
+        NodeRecord before = command.getBefore(), after = command.getAfter();
+        if (!before.inUse() || lost.containsKey(nodeId) && lost.get(nodeId) == null) return;
+        long[] had = NodeLabelsField.parseLabelsField(before).getIfLoaded();
+        long[] has = after.inUse() ? NodeLabelsField.parseLabelsField(after).getIfLoaded() : new long[0];
+        if (had == null || has == null) {
+            lost.put(nodeId, null);
+            return;
+        }
+        Set<Long> kept = new HashSet<>();
+        for (long labelId : has) {
+            kept.add(labelId);
+        }
+        for (long labelId : had) {
+            if (kept.contains(labelId)) continue;
+            Token token = labelTokens.getTokenByIdOrNull((int) labelId);
+            if (token == null) {
+                lost.put(nodeId, null);
+                return;
+            }
+            Set<Label> labels = lost.get(nodeId);
+            if (labels == null) {
+                labels = new HashSet<>();
+                lost.put(nodeId, labels);
+            }
+            labels.add(DynamicLabel.label(token.name()));
+        }
+    }
+
+    /** Sends the current state of the nodes, at most one batch of nodesPerSecond per second. */
+    private void send(Set<Long> nodeIds) throws Exception {
+        if (nodeIds.isEmpty()) return;
+        long start = System.currentTimeMillis();
+        deleteRoutedCopies(nodeIds);
+        Collection<BulkableAction> actions = cluster.select(handler.replayRequests(nodeIds));
+        if (!actions.isEmpty()) {
+            if (!cluster.executeBulk(actions)) {
+                throw new IllegalStateException("ElasticSearch rejected catch-up bulk");
+            }
+        }
+        nodeIds.clear();
+        long elapsed = System.currentTimeMillis() - start;
+        if (elapsed < 1000) Thread.sleep(1000 - elapsed);
+    }
+
+    /**
+     * Removes the copies of the nodes from the indexes routed by a property before their current
+     * state is sent, a copy under a routing value the node no longer has would stay searchable.
+     */
+    private void deleteRoutedCopies(Set<Long> nodeIds) throws Exception {
+        for (DeleteByQuery delete : handler.replayDeletes(nodeIds, cluster)) {
+            JestResult result = cluster.getClient().execute(delete);
+            if (!result.isSucceeded()) {
+                throw new IllegalStateException("ElasticSearch rejected catch-up delete: " + result.getErrorMessage());
+            }
+        }
+    }
+}
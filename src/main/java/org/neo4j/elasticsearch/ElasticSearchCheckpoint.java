@@ -0,0 +1,50 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Get;
+import io.searchbox.core.Index;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Stores the id of the last transaction delivered to ElasticSearch in ElasticSearch itself,
+ * so it survives restarts and stays with the data it describes.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchCheckpoint {
+    static final String INDEX = "neo4j_elasticsearch";
+    static final String TYPE = "checkpoint";
+    static final long NONE = -1;
+
+    private final JestClient client;
+    private final String id;
+
+    ElasticSearchCheckpoint(JestClient client, String id) {
+        this.client = client;
+        this.id = id;
+    }
+
+    /** @return the stored transaction id or {@link #NONE} if nothing was stored yet */
+    long load() throws Exception {
+        JestResult result = client.execute(new Get.Builder(INDEX, id).type(TYPE).build());
+        if (!result.isSucceeded()) {
+            Object status = result.getValue("status");
+            if (Boolean.FALSE.equals(result.getValue("found"))
+                    || (status instanceof Number && ((Number) status).intValue() == 404)) return NONE;
+            throw new IllegalStateException("Can't read checkpoint: " + result.getErrorMessage());
+        }
+        Map source = result.getSourceAsObject(Map.class);
+        return ((Number) source.get("tx_id")).longValue();
+    }
+
+    void save(long txId) throws Exception {
+        JestResult result = client.execute(new Index.Builder(Collections.singletonMap("tx_id", txId))
+                .index(INDEX).type(TYPE).id(id).build());
+        if (!result.isSucceeded()) {
+            throw new IllegalStateException("Can't write checkpoint: " + result.getErrorMessage());
+        }
+    }
+}
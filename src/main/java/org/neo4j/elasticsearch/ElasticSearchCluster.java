@@ -0,0 +1,293 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+import io.searchbox.params.Parameters;
+
+import org.neo4j.kernel.impl.util.StringLogger;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One target cluster: its client, the indexes it receives, bounded per-index send queues with
+ * their own sender threads and failure state. A slow or unreachable cluster only fills its own
+ * queues; what doesn't fit is marked as failed and replayed later by the catch-up from the logical log.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchCluster {
+    static final String DEFAULT_NAME = "default";
+    private static final int FAILURES_BEFORE_BACKOFF = 3;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+    private static final Gson GSON = new Gson();
+
+    private final String name;
+    private final JestClient client;
+    private final Set<String> indexes;
+    private final StringLogger logger;
+    private final ElasticSearchTransactionTracker tracker;
+    private final ElasticSearchScheduler scheduler;
+    private final int queueSize;
+    private final int bulkSize;
+    private final int concurrency;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long backoffUntil = 0;
+    private volatile ExecutorService senders;
+    private final Map<String, String> mirrors = new ConcurrentHashMap<>();
+    private volatile ElasticSearchShardRouter router;
+
+    /**
+     * @param indexes the indexes sent to this cluster, null for all
+     * @param queueSize maximum number of actions waiting to be sent
+     * @param bulkSize maximum number of actions per bulk request
+     * @param concurrency number of bulk requests in flight, 0 sends on the committing thread
+     */
+    ElasticSearchCluster(String name, JestClient client, Set<String> indexes, ElasticSearchTransactionTracker tracker,
+                         StringLogger logger, ElasticSearchScheduler scheduler, int queueSize, int bulkSize, int concurrency) {
+        this.name = name;
+        this.client = client;
+        this.indexes = indexes;
+        this.tracker = tracker;
+        this.logger = logger;
+        this.scheduler = scheduler;
+        this.queueSize = queueSize;
+        this.bulkSize = bulkSize;
+        this.concurrency = concurrency;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    JestClient getClient() {
+        return client;
+    }
+
+    ElasticSearchTransactionTracker getTracker() {
+        return tracker;
+    }
+
+    /** Sends bulks straight to the nodes holding the primary shards of their documents. */
+    void setShardRouter(ElasticSearchShardRouter router) {
+        this.router = router;
+    }
+
+    boolean accepts(String index) {
+        return indexes == null || indexes.contains(index);
+    }
+
+    boolean isBackingOff() {
+        return System.currentTimeMillis() < backoffUntil;
+    }
+
+    synchronized void start() {
+        if (concurrency <= 0 || senders != null) return;
+        senders = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "neo4j-elasticsearch-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < concurrency; i++) {
+            senders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendQueued();
+                }
+            });
+        }
+    }
+
+    /** Waits out backoffs and sends bulks taken from the per-index queues until interrupted. */
+    private void sendQueued() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long backoff = backoffUntil - System.currentTimeMillis();
+                if (backoff > 0) Thread.sleep(backoff);
+                List<ElasticSearchScheduler.Entry> batch = scheduler.take(bulkSize);
+                List<BulkableAction> actions = new ArrayList<>(batch.size());
+                for (ElasticSearchScheduler.Entry entry : batch) {
+                    actions.add(entry.action);
+                }
+                boolean succeeded = execute(actions);
+                for (ElasticSearchScheduler.Entry entry : batch) {
+                    entry.delivery.acknowledge(succeeded);
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutting down, unsent transactions are replayed after restart
+        }
+    }
+
+    synchronized void shutdown() throws InterruptedException {
+        if (senders != null) {
+            senders.shutdownNow();
+            senders.awaitTermination(10, TimeUnit.SECONDS);
+            senders = null;
+        }
+        if (router != null) router.shutdown();
+        client.shutdownClient();
+    }
+
+    /** @return the actions for indexes of this cluster, with copies for the indexes being rebuilt */
+    Collection<BulkableAction> select(Collection<BulkableAction> actions) {
+        if (indexes == null && mirrors.isEmpty()) return actions;
+        Collection<BulkableAction> selected = new ArrayList<>(actions.size());
+        for (BulkableAction action : actions) {
+            if (!accepts(action.getIndex())) continue;
+            selected.add(action);
+            String mirror = mirrors.get(action.getIndex());
+            if (mirror != null) selected.add(retarget(action, mirror));
+        }
+        return selected;
+    }
+
+    /** Sends copies of all further writes to the index to the target index, too, until {@link #unmirror(String)}. */
+    void mirror(String index, String target) {
+        mirrors.put(index, target);
+    }
+
+    void unmirror(String index) {
+        mirrors.remove(index);
+    }
+
+    /** @return the action for another index, index requests share their source */
+    static BulkableAction retarget(BulkableAction action, String index) {
+        Collection<Object> routing = action.getParameter(Parameters.ROUTING);
+        if ("delete".equals(action.getBulkMethodName())) {
+            Delete.Builder delete = new Delete.Builder(action.getId()).index(index).type(action.getType());
+            for (Object value : routing) delete.setParameter(Parameters.ROUTING, value);
+            return delete.build();
+        }
+        Index.Builder copy = new Index.Builder(action.getData(GSON)).index(index).type(action.getType()).id(action.getId());
+        for (Object value : routing) copy.setParameter(Parameters.ROUTING, value);
+        return copy.build();
+    }
+
+    /**
+     * Sends the actions of one transaction. Sending asynchronously never blocks the caller.
+     */
+    void send(Collection<BulkableAction> actions, ElasticSearchTransactionTracker.Ticket ticket, boolean async) {
+        if (actions.isEmpty()) {
+            if (ticket != null) tracker.done(ticket);
+            return;
+        }
+        if (!async || senders == null) {
+            new Delivery(ticket, 1).acknowledge(execute(actions));
+            return;
+        }
+        if (isBackingOff() || scheduler.size() + actions.size() > queueSize) {
+            drop(actions, ticket);
+            return;
+        }
+        Delivery delivery = new Delivery(ticket, actions.size());
+        long now = System.currentTimeMillis();
+        List<ElasticSearchScheduler.Entry> entries = new ArrayList<>(actions.size());
+        for (BulkableAction action : actions) {
+            entries.add(new ElasticSearchScheduler.Entry(action, delivery, now));
+        }
+        scheduler.offer(entries);
+    }
+
+    private void drop(Collection<BulkableAction> actions, ElasticSearchTransactionTracker.Ticket ticket) {
+        logger.debug("ElasticSearch " + name + ": dropped " + actions.size() + " actions, will catch up later");
+        if (ticket != null) tracker.failed(ticket);
+    }
+
+    private boolean execute(Collection<BulkableAction> actions) {
+        try {
+            if (executeBulk(actions)) {
+                logger.debug("ElasticSearch Update Success");
+                consecutiveFailures.set(0);
+                backoffUntil = 0;
+                return true;
+            }
+        } catch (Exception e) {
+            logger.warn("Problem Updating ElasticSearch " + name, e);
+        }
+        int failures = consecutiveFailures.incrementAndGet();
+        if (failures >= FAILURES_BEFORE_BACKOFF) {
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, 1000L << Math.min(16, failures - FAILURES_BEFORE_BACKOFF));
+            backoffUntil = System.currentTimeMillis() + backoff;
+        }
+        return false;
+    }
+
+    /**
+     * Sends the actions right away, through the shard router if there is one. Used directly by
+     * catch-up, backfill and reindex, which handle failures themselves.
+     * @return true if all bulks succeeded
+     */
+    boolean executeBulk(Collection<BulkableAction> actions) throws Exception {
+        ElasticSearchShardRouter router = this.router;
+        if (router == null) return executeBulk(client, actions);
+        boolean succeeded = false;
+        try {
+            succeeded = executeRouted(router, actions);
+            return succeeded;
+        } finally {
+            // shards may have moved or a node left, look them up again
+            if (!succeeded) router.invalidate();
+        }
+    }
+
+    private boolean executeBulk(JestClient target, Collection<BulkableAction> actions) throws Exception {
+        JestResult result = target.execute(new Bulk.Builder().addAction(actions).build());
+        if (ElasticSearchEventHandler.isBulkSucceeded(result)) return true;
+        logger.warn("ElasticSearch " + name + " Update Failed: " + result.getErrorMessage());
+        return false;
+    }
+
+    /** One bulk per primary shard node; all have to succeed, failed ones are replayed with the whole batch. */
+    private boolean executeRouted(ElasticSearchShardRouter router, Collection<BulkableAction> actions) throws Exception {
+        boolean succeeded = true;
+        for (Map.Entry<JestClient, List<BulkableAction>> bulk : router.split(actions).entrySet()) {
+            succeeded &= executeBulk(bulk.getKey(), bulk.getValue());
+        }
+        return succeeded;
+    }
+
+    /**
+     * The actions of one transaction, which may be spread over several bulk requests.
+     * The transaction is delivered once all of them were acknowledged.
+     */
+    class Delivery {
+        private final ElasticSearchTransactionTracker.Ticket ticket;
+        private final AtomicInteger remaining;
+        private volatile boolean failed = false;
+
+        Delivery(ElasticSearchTransactionTracker.Ticket ticket, int actions) {
+            this.ticket = ticket;
+            this.remaining = new AtomicInteger(actions);
+        }
+
+        void acknowledge(boolean succeeded) {
+            if (!succeeded) failed = true;
+            if (remaining.decrementAndGet() > 0 || ticket == null) return;
+            if (failed) {
+                tracker.failed(ticket);
+            } else {
+                tracker.done(ticket);
+            }
+        }
+    }
+}
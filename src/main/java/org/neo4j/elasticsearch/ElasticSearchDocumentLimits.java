@@ -0,0 +1,63 @@
+package org.neo4j.elasticsearch;
+
+import java.util.Map;
+
+/**
+ * Limits on the size of the documents of an index spec, 0 means unlimited. Values and documents
+ * over a limit are handled according to the policy.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchDocumentLimits {
+    enum Policy {
+        /** keep the part of the value that fits, or the properties that fit into the document */
+        TRUNCATE,
+        /** leave the value out, or don't index the document at all */
+        SKIP,
+        /** replace the value by a hash of it, documents are truncated */
+        HASH
+    }
+
+    static final ElasticSearchDocumentLimits NONE = new ElasticSearchDocumentLimits(0, 0, 0, Policy.TRUNCATE);
+
+    final int maxPropertyBytes;
+    final int maxArrayLength;
+    final int maxDocumentBytes;
+    final Policy policy;
+
+    ElasticSearchDocumentLimits(int maxPropertyBytes, int maxArrayLength, int maxDocumentBytes, Policy policy) {
+        this.maxPropertyBytes = maxPropertyBytes;
+        this.maxArrayLength = maxArrayLength;
+        this.maxDocumentBytes = maxDocumentBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * @param values overrides of max_property_bytes, max_array_length, max_document_bytes and oversize_policy
+     */
+    ElasticSearchDocumentLimits with(Map<String, String> values) {
+        return new ElasticSearchDocumentLimits(
+                intValue(values, "max_property_bytes", maxPropertyBytes),
+                intValue(values, "max_array_length", maxArrayLength),
+                intValue(values, "max_document_bytes", maxDocumentBytes),
+                values.containsKey("oversize_policy") ? policy(values.get("oversize_policy")) : policy);
+    }
+
+    static Policy policy(String name) {
+        return Policy.valueOf(name.trim().toUpperCase());
+    }
+
+    boolean isUnlimited() {
+        return maxPropertyBytes <= 0 && maxArrayLength <= 0 && maxDocumentBytes <= 0;
+    }
+
+    private static int intValue(Map<String, String> values, String key, int defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public String toString() {
+        return "max_property_bytes=" + maxPropertyBytes + ",max_array_length=" + maxArrayLength
+                + ",max_document_bytes=" + maxDocumentBytes + ",oversize_policy=" + policy.name().toLowerCase();
+    }
+}
@@ -0,0 +1,240 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes documents straight into their JSON text, applying the size limits of the index spec.
+ * Sizes are estimated from the values before they are written, in bytes of UTF-8.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchDocumentWriter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Object SKIP = new Object();
+
+    private final Gson gson = new Gson();
+    private final AtomicLong truncatedValues = new AtomicLong();
+    private final AtomicLong skippedValues = new AtomicLong();
+    private final AtomicLong hashedValues = new AtomicLong();
+    private final AtomicLong truncatedDocuments = new AtomicLong();
+    private final AtomicLong skippedDocuments = new AtomicLong();
+
+    /**
+     * @param values the property values in document order, missing properties are left out
+     * @return the document, null if it is over the document size limit and the policy is to skip it
+     */
+    String write(Object id, Object labels, Map<String, Object> values, ElasticSearchDocumentLimits limits) {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        try {
+            writer.beginObject();
+            writer.name("id");
+            writeValue(writer, id);
+            writer.name("labels");
+            writeValue(writer, labels);
+            long size = 0;
+            boolean truncated = false;
+            for (Map.Entry<String, Object> e : values.entrySet()) {
+                Object value = e.getValue();
+                if (value == null) continue;
+                if (!limits.isUnlimited()) {
+                    value = limit(value, limits);
+                    if (value == SKIP) continue;
+                    if (limits.maxDocumentBytes > 0) {
+                        long propertySize = size(e.getKey()) + size(value) + 2;
+                        if (size + propertySize > limits.maxDocumentBytes) {
+                            if (limits.policy == ElasticSearchDocumentLimits.Policy.SKIP) {
+                                skippedDocuments.incrementAndGet();
+                                return null;
+                            }
+                            truncated = true;
+                            continue;
+                        }
+                        size += propertySize;
+                    }
+                }
+                writer.name(e.getKey());
+                writeValue(writer, value);
+            }
+            if (truncated) truncatedDocuments.incrementAndGet();
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringWriter doesn't throw
+        }
+        return out.toString();
+    }
+
+    /** @return the value within the limits, or SKIP */
+    private Object limit(Object value, ElasticSearchDocumentLimits limits) {
+        boolean changed = false;
+        if (value instanceof Collection) value = ((Collection) value).toArray();
+        if (limits.maxArrayLength > 0 && value.getClass().isArray() && Array.getLength(value) > limits.maxArrayLength) {
+            switch (limits.policy) {
+                case SKIP:
+                    skippedValues.incrementAndGet();
+                    return SKIP;
+                case HASH:
+                    hashedValues.incrementAndGet();
+                    return hash(value);
+                default:
+                    value = head(value, limits.maxArrayLength);
+                    changed = true;
+            }
+        }
+        if (limits.maxPropertyBytes > 0 && size(value) > limits.maxPropertyBytes) {
+            switch (limits.policy) {
+                case SKIP:
+                    skippedValues.incrementAndGet();
+                    return SKIP;
+                case HASH:
+                    hashedValues.incrementAndGet();
+                    return hash(value);
+                default:
+                    value = truncate(value, limits.maxPropertyBytes);
+                    changed = true;
+            }
+        }
+        if (changed) truncatedValues.incrementAndGet();
+        return value;
+    }
+
+    private static Object truncate(Object value, int maxBytes) {
+        if (value instanceof String) return truncate((String) value, maxBytes - 2);
+        if (!value.getClass().isArray()) return value;
+        int length = Array.getLength(value);
+        long size = 2;
+        int count = 0;
+        while (count < length && size + size(Array.get(value, count)) + 1 <= maxBytes) {
+            size += size(Array.get(value, count)) + 1;
+            count++;
+        }
+        return head(value, count);
+    }
+
+    /** @return the longest prefix of value with at most maxBytes bytes in UTF-8 */
+    private static String truncate(String value, int maxBytes) {
+        long size = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int bytes = utf8Length(value.charAt(i));
+            if (size + bytes > maxBytes) return value.substring(0, i);
+            size += bytes;
+        }
+        return value;
+    }
+
+    private static Object[] head(Object array, int count) {
+        Object[] head = new Object[count];
+        for (int i = 0; i < count; i++) {
+            head[i] = Array.get(array, i);
+        }
+        return head;
+    }
+
+    /** Estimated size of the value in the document. */
+    private static long size(Object value) {
+        if (value instanceof String) return utf8Length((String) value) + 2;
+        if (value instanceof Character) return 3;
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            long size = 1 + length;
+            for (int i = 0; i < length; i++) {
+                size += size(Array.get(value, i));
+            }
+            return size;
+        }
+        return String.valueOf(value).length();
+    }
+
+    private static long utf8Length(String value) {
+        long size = 0;
+        for (int i = 0; i < value.length(); i++) {
+            size += utf8Length(value.charAt(i));
+        }
+        return size;
+    }
+
+    /** a surrogate pair takes 4 bytes, counted at its high surrogate */
+    private static int utf8Length(char c) {
+        if (Character.isHighSurrogate(c)) return 4;
+        if (Character.isLowSurrogate(c)) return 0;
+        return c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+    }
+
+    private static String hash(Object value) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                digest.update(String.valueOf(Array.get(value, i)).getBytes(UTF_8));
+                digest.update((byte) 0);
+            }
+        } else {
+            digest.update(String.valueOf(value).getBytes(UTF_8));
+        }
+        byte[] bytes = digest.digest();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return "sha1:" + new String(hex);
+    }
+
+    private void writeValue(JsonWriter writer, Object value) throws IOException {
+        if (value == null) {
+            writer.nullValue();
+        } else if (value instanceof String) {
+            writer.value((String) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof Character) {
+            writer.value(value.toString());
+        } else if (value instanceof Collection) {
+            writer.beginArray();
+            for (Object element : (Collection) value) {
+                writeValue(writer, element);
+            }
+            writer.endArray();
+        } else if (value.getClass().isArray()) {
+            writer.beginArray();
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                writeValue(writer, Array.get(value, i));
+            }
+            writer.endArray();
+        } else {
+            gson.toJson(value, value.getClass(), writer);
+        }
+    }
+
+    Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("values_truncated", truncatedValues.get());
+        metrics.put("values_skipped", skippedValues.get());
+        metrics.put("values_hashed", hashedValues.get());
+        metrics.put("documents_truncated", truncatedDocuments.get());
+        metrics.put("documents_skipped", skippedDocuments.get());
+        return metrics;
+    }
+}
@@ -3,16 +3,18 @@ package org.neo4j.elasticsearch;
 import io.searchbox.action.BulkableAction;
 import io.searchbox.client.JestClient;
 import io.searchbox.client.JestResult;
-import io.searchbox.client.JestResultHandler;
-import io.searchbox.core.Bulk;
 import io.searchbox.core.Delete;
+import io.searchbox.core.DeleteByQuery;
 import io.searchbox.core.Index;
+import io.searchbox.params.Parameters;
 
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.graphdb.event.TransactionEventHandler;
 import org.neo4j.kernel.impl.util.StringLogger;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import com.graphaware.common.policy.InclusionPolicies;
 import com.graphaware.common.policy.NodeInclusionPolicy;
 import com.graphaware.common.policy.none.IncludeNoRelationships;
@@ -22,24 +24,43 @@ import com.graphaware.tx.event.improved.api.ImprovedTransactionData;
 import com.graphaware.tx.event.improved.api.LazyTransactionData;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 
 /**
 * @author mh
 * @since 25.04.15
 */
-class ElasticSearchEventHandler implements TransactionEventHandler<Collection<BulkableAction>>, JestResultHandler<JestResult> {
-    private final JestClient client;
+class ElasticSearchEventHandler implements TransactionEventHandler<ElasticSearchEventHandler.Changes> {
+    static final int DEFAULT_QUEUE_SIZE = 100000;
+    static final int DEFAULT_BULK_SIZE = 1000;
+    static final int DEFAULT_CONCURRENCY = 2;
+    private static final Gson GSON = new Gson();
+    private final List<ElasticSearchCluster> clusters;
     private final StringLogger logger;
     private final GraphDatabaseService gds;
     private final Map<Label, List<ElasticSearchIndexSpec>> indexSpecs;
     private final Set<Label> indexLabels;
     private boolean useAsyncJest = true;
     private final InclusionPolicies inclusionPolicies;
+    private int parallelThreshold = 0;
+    private ForkJoinPool pool;
+    private ElasticSearchFingerprintCache fingerprints;
+    private final ElasticSearchDocumentWriter documents = new ElasticSearchDocumentWriter();
+    private volatile boolean shipping = true;
     
 
     public ElasticSearchEventHandler(JestClient client, Map<Label, List<ElasticSearchIndexSpec>> indexSpec, StringLogger logger, GraphDatabaseService gds) {
-        this.client = client;
+        this(Collections.singletonList(new ElasticSearchCluster(ElasticSearchCluster.DEFAULT_NAME, client, null,
+                ElasticSearchTransactionTracker.of(gds), logger,
+                new ElasticSearchScheduler(Collections.<String, Integer>emptyMap(), Collections.<String, Long>emptyMap()),
+                DEFAULT_QUEUE_SIZE, DEFAULT_BULK_SIZE, DEFAULT_CONCURRENCY)), indexSpec, logger, gds);
+        clusters.get(0).start();
+    }
+
+    public ElasticSearchEventHandler(List<ElasticSearchCluster> clusters, Map<Label, List<ElasticSearchIndexSpec>> indexSpec, StringLogger logger, GraphDatabaseService gds) {
+        this.clusters = clusters;
         this.indexSpecs = indexSpec;
         this.indexLabels = indexSpec.keySet();
         this.logger = logger;
@@ -58,66 +79,301 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
     }
 
     @Override
-    public Collection<BulkableAction> beforeCommit(TransactionData transactionData) throws Exception {
+    public Changes beforeCommit(TransactionData transactionData) throws Exception {
+        if (!shipping) return null;
 
         ImprovedTransactionData improvedTransactionData = new FilteredTransactionData(new LazyTransactionData(transactionData), inclusionPolicies);
-        Map<IndexId, BulkableAction> actions = new HashMap<>(1000);
+        Map<IndexId, BulkableAction> deletes = new HashMap<>();
+        // changed nodes with their state before the transaction, created nodes with themselves
+        // as they weren't indexed before, whether they match the predicates of a spec or not
+        Map<Node, Node> toIndex = new LinkedHashMap<>();
 
         for (Node node: improvedTransactionData.getAllCreatedNodes()) {
-            actions.putAll(indexRequests(node));
+            toIndex.put(node, node);
         }
         for (Node node: improvedTransactionData.getAllDeletedNodes()) {
-            actions.putAll(deleteRequests(node));
+            deletes.putAll(deleteRequests(node));
         }
         for (Change<Node> nodeChange: improvedTransactionData.getAllChangedNodes()) {
         	Set<Label> s = improvedTransactionData.removedLabels(nodeChange.getCurrent());
         	if (!s.isEmpty()) {
         		for (Label removedLabel: s) {
-        			actions.putAll(deleteRequests(nodeChange.getCurrent(), removedLabel));
+        			deletes.putAll(deleteRequests(nodeChange.getPrevious(), removedLabel));
         		}
         	}
         	else {
-        		actions.putAll(indexRequests(nodeChange.getCurrent()));
+        		toIndex.put(nodeChange.getCurrent(), nodeChange.getPrevious());
+        		deletes.putAll(routingDeletes(nodeChange.getCurrent(), nodeChange.getPrevious()));
         	}
         }
- 
-        return actions.isEmpty() ? Collections.<BulkableAction>emptyList() : actions.values();
+
+        if (parallelThreshold > 0 && toIndex.size() >= parallelThreshold) {
+            // render the documents after commit, when other threads can read the committed state
+            long[] ids = new long[toIndex.size()];
+            int i = 0;
+            for (Node node : toIndex.keySet()) {
+                ids[i++] = node.getId();
+            }
+            return new Changes(deletes, ids, begin());
+        }
+
+        Map<IndexId, BulkableAction> indexed = new HashMap<>(1000);
+        List<Long> fingerprinted = new ArrayList<>();
+        for (Map.Entry<Node, Node> e: toIndex.entrySet()) {
+            indexed.putAll(indexRequests(e.getKey(), e.getValue(), false, fingerprinted, ""));
+        }
+        Map<IndexId, BulkableAction> actions = deletesFirst(deletes, indexed);
+        Changes changes = new Changes(actions, null, actions.isEmpty() ? null : begin());
+        changes.fingerprinted = fingerprinted;
+        return changes;
     }
 
     public void setUseAsyncJest(boolean useAsyncJest) {
         this.useAsyncJest = useAsyncJest;
     }
 
+    void setFingerprintCache(ElasticSearchFingerprintCache fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    /** Turns sending changes on commit off, when they are shipped from the logical log instead. */
+    void setShipping(boolean shipping) {
+        this.shipping = shipping;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    ElasticSearchDocumentWriter getDocumentWriter() {
+        return documents;
+    }
+
+    ElasticSearchFingerprintCache getFingerprintCache() {
+        return fingerprints;
+    }
+
+    List<ElasticSearchCluster> getClusters() {
+        return clusters;
+    }
+
+    private ElasticSearchTransactionTracker.Ticket[] begin() {
+        ElasticSearchTransactionTracker.Ticket[] tickets = new ElasticSearchTransactionTracker.Ticket[clusters.size()];
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = clusters.get(i).getTracker().begin();
+        }
+        return tickets;
+    }
+
+    public void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) pool = new ForkJoinPool();
+        return pool;
+    }
+
     @Override
-    public void afterCommit(TransactionData transactionData, Collection<BulkableAction> actions) {
-        if (actions.isEmpty()) return;
-        try {
-            Bulk bulk = new Bulk.Builder()
-                    .addAction(actions).build();
-            if (useAsyncJest) {
-                client.executeAsync(bulk, this);
+    public void afterCommit(TransactionData transactionData, Changes changes) {
+        if (changes == null || changes.tickets == null) return;
+        Collection<BulkableAction> actions = changes.actions.values();
+        if (changes.deferred != null) {
+            try {
+                Map<IndexId, BulkableAction> indexed = pool().invoke(new IndexTask(changes.deferred, 0, changes.deferred.length));
+                actions = deletesFirst(changes.actions, indexed).values();
+            } catch (RuntimeException e) {
+                // the transaction is committed, a replay of the failed tickets sends the changes
+                logger.error("ElasticSearch: rendering " + changes.deferred.length + " committed nodes failed", e);
+                for (int i = 0; i < clusters.size(); i++) {
+                    clusters.get(i).getTracker().failed(changes.tickets[i]);
+                }
+                return;
             }
-            else {
-                client.execute(bulk);
+        }
+        for (int i = 0; i < clusters.size(); i++) {
+            ElasticSearchCluster cluster = clusters.get(i);
+            cluster.send(cluster.select(actions), changes.tickets[i], useAsyncJest);
+        }
+    }
+
+    /**
+     * @return the deletes, then the deletes among the other actions, then their index requests.
+     * A delete by id removes the document from its shard whatever routing it was written with,
+     * sent after the index request under a new routing value on the same shard it would remove
+     * the new document. Deletes take the place of other actions for the same document.
+     */
+    static Map<IndexId, BulkableAction> deletesFirst(Map<IndexId, BulkableAction> deletes, Map<IndexId, BulkableAction> actions) {
+        Map<IndexId, BulkableAction> ordered = new LinkedHashMap<>(deletes);
+        for (Map.Entry<IndexId, BulkableAction> e : actions.entrySet()) {
+            if (isDelete(e.getValue()) && !ordered.containsKey(e.getKey())) ordered.put(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<IndexId, BulkableAction> e : actions.entrySet()) {
+            if (!isDelete(e.getValue()) && !ordered.containsKey(e.getKey())) ordered.put(e.getKey(), e.getValue());
+        }
+        return ordered;
+    }
+
+    private static boolean isDelete(BulkableAction action) {
+        return "delete".equals(action.getBulkMethodName());
+    }
+
+    /**
+     * Renders the current state of the given nodes from the committed graph. Nodes that
+     * no longer exist, or no longer carry an indexed label, are deleted from the indexes.
+     * Large batches are rendered in parallel, like the documents deferred on commit.
+     */
+    Collection<BulkableAction> replayRequests(Collection<Long> nodeIds) {
+        return replayRequests(nodeIds, null, "");
+    }
+
+    /**
+     * Renders the nodes an HA master ships from its logical log. Unlike a replay, deletes are
+     * only sent for the labels the nodes lost, and documents the cluster was sent already are
+     * left out. Every cluster ships on its own, so it keeps its own fingerprints.
+     * @param lost the indexed labels each node lost, a null value if they aren't known
+     */
+    Collection<BulkableAction> shipRequests(Collection<Long> nodeIds, Map<Long, Set<Label>> lost, ElasticSearchCluster cluster) {
+        String scope = cluster.getName() + "/";
+        for (Map.Entry<Label, List<ElasticSearchIndexSpec>> e : indexSpecs.entrySet()) {
+            for (ElasticSearchIndexSpec spec : e.getValue()) {
+                // the copies in routed indexes were removed by the deletes of replayDeletes
+                if (spec.getRouting() == null || !cluster.accepts(spec.getIndexName())) continue;
+                for (Long nodeId : nodeIds) {
+                    forget(scope, spec.getIndexName(), e.getKey(), nodeId);
+                }
+            }
+        }
+        return replayRequests(nodeIds, lost, scope);
+    }
+
+    private Collection<BulkableAction> replayRequests(Collection<Long> nodeIds, Map<Long, Set<Label>> lost, String scope) {
+        long[] ids = new long[nodeIds.size()];
+        int i = 0;
+        for (Long nodeId : nodeIds) {
+            ids[i++] = nodeId;
+        }
+        if (ids.length > IndexTask.LEAF_SIZE) {
+            return deletesFirst(Collections.<IndexId, BulkableAction>emptyMap(), pool().invoke(new IndexTask(ids, 0, ids.length, true, lost, scope))).values();
+        }
+        Map<IndexId, BulkableAction> reqs = new HashMap<>(ids.length * 2);
+        try (Transaction tx = gds.beginTx()) {
+            for (long nodeId : ids) {
+                replayRequests(nodeId, lost, scope, reqs);
+            }
+            tx.success();
+        }
+        return deletesFirst(Collections.<IndexId, BulkableAction>emptyMap(), reqs).values();
+    }
+
+    /**
+     * @param lost the labels the nodes lost, a node without an entry lost none; null to delete the
+     * node from the specs of every label it lacks and send its documents whatever their fingerprint
+     */
+    private void replayRequests(long nodeId, Map<Long, Set<Label>> lost, String scope, Map<IndexId, BulkableAction> reqs) {
+        Node node;
+        try {
+            node = gds.getNodeById(nodeId);
+        } catch (NotFoundException e) {
+            node = null;
+        }
+        Set<Label> removed = indexLabels;
+        if (lost != null) {
+            removed = lost.containsKey(nodeId) ? lost.get(nodeId) : Collections.<Label>emptySet();
+            if (removed == null) removed = indexLabels;
+        }
+        String id = String.valueOf(nodeId);
+        for (Label label : removed) {
+            List<ElasticSearchIndexSpec> specs = indexSpecs.get(label);
+            if (specs == null || node != null && node.hasLabel(label)) continue;
+            for (ElasticSearchIndexSpec spec : specs) {
+                forget(scope, spec.getIndexName(), label, nodeId);
+                String routing = node == null ? null : spec.routing(node);
+                reqs.put(new IndexId(spec.getIndexName(), id, routing), delete(spec, label, id, routing));
             }
-        } catch (Exception e) {
-            logger.warn("Error updating ElasticSearch ", e);
         }
+        if (node != null) reqs.putAll(indexRequests(node, null, lost == null, null, scope));
     }
     
-    private Map<IndexId, Index> indexRequests(Node node) {
-        HashMap<IndexId, Index> reqs = new HashMap<>();
+    /**
+     * Deletes of every copy of the nodes in the indexes of the cluster that are routed by a property.
+     * The replay only knows the current routing value of a node, a copy under an older one would
+     * be left behind; so these are sent before the replayed documents.
+     */
+    List<DeleteByQuery> replayDeletes(Collection<Long> nodeIds, ElasticSearchCluster cluster) {
+        List<DeleteByQuery> deletes = new ArrayList<>();
+        if (nodeIds.isEmpty()) return deletes;
+        for (Map.Entry<Label, List<ElasticSearchIndexSpec>> e : indexSpecs.entrySet()) {
+            for (ElasticSearchIndexSpec spec : e.getValue()) {
+                if (spec.getRouting() == null || !cluster.accepts(spec.getIndexName())) continue;
+                deletes.add(deleteByIds(nodeIds, spec.getIndexName(), e.getKey().name()));
+            }
+        }
+        return deletes;
+    }
+
+    /** Deletes the documents of the nodes from all shards of the index, whatever routing they were written with. */
+    static DeleteByQuery deleteByIds(Collection<Long> nodeIds, String index, String type) {
+        List<String> ids = new ArrayList<>(nodeIds.size());
+        for (Long nodeId : nodeIds) {
+            ids.add(String.valueOf(nodeId));
+        }
+        String query = GSON.toJson(Collections.singletonMap("query",
+                Collections.singletonMap("ids", Collections.singletonMap("values", ids))));
+        return new DeleteByQuery.Builder(query).addIndex(index).addType(type).build();
+    }
+
+    private Map<IndexId, BulkableAction> indexRequests(Node node) {
+        return indexRequests(node, null, false, null, "");
+    }
+
+    /**
+     * Index requests for the specs the node matches, deletes for those it doesn't.
+     * @param previous the node before the transaction, only specs it matched get a delete; null if unknown
+     * @param force send documents even if the fingerprint cache has seen them already
+     * @param updated collects the fingerprint keys updated, null if they don't need to be known
+     * @param scope prefix of the fingerprint keys, empty for those of commits
+     */
+    private Map<IndexId, BulkableAction> indexRequests(Node node, Node previous, boolean force, Collection<Long> updated, String scope) {
+        HashMap<IndexId, BulkableAction> reqs = new HashMap<>();
 
         for (Label l: node.getLabels()) {
             if (!indexLabels.contains(l)) continue;
 
             for (ElasticSearchIndexSpec spec: indexSpecs.get(l)) {
                 String id = id(node), indexName = spec.getIndexName();
-                reqs.put(new IndexId(indexName, id), new Index.Builder(nodeToJson(node, spec.getProperties()))
+                if (!spec.matches(node)) {
+                    if (previous == null || spec.matches(previous)) {
+                        forget(scope, indexName, l, node.getId());
+                        String routing = spec.routing(previous == null ? node : previous);
+                        reqs.put(new IndexId(indexName, id, routing), delete(spec, l, id, routing));
+                    }
+                    continue;
+                }
+                String routing = spec.routing(node);
+                String json = documents.write(id, labels(node), properties(node, spec.getProperties()), spec.getLimits());
+                if (json == null) {
+                    // over the document size limit, don't leave an outdated version searchable
+                    forget(scope, indexName, l, node.getId());
+                    reqs.put(new IndexId(indexName, id, routing), delete(spec, l, id, routing));
+                    continue;
+                }
+                if (fingerprints != null) {
+                    long key = ElasticSearchFingerprintCache.key(scope + indexName + ":" + l.name(), node.getId());
+                    long fingerprint = ElasticSearchFingerprintCache.fingerprint(json);
+                    if (force) {
+                        fingerprints.put(key, fingerprint);
+                    } else if (!fingerprints.update(key, fingerprint)) {
+                        continue;
+                    }
+                    if (updated != null) updated.add(key);
+                }
+                Index.Builder index = new Index.Builder(json)
                 .type(l.name())
                 .index(indexName)
-                .id(id)
-                .build());
+                .id(id);
+                if (routing != null) index.setParameter(Parameters.ROUTING, routing);
+                reqs.put(new IndexId(indexName, id, routing), index.build());
             }
         }
         return reqs;
@@ -130,9 +386,10 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
     	}
     	
     	for (ElasticSearchIndexSpec spec: indexSpecs.get(removedLabel)) {
-    		String id = id(node), indexName = spec.getIndexName();
-    		reqs.put(new IndexId(indexName, id),
-    				new Delete.Builder(id).index(indexName).type(removedLabel.name()).build());
+    		if (!spec.matches(node)) continue;
+    		String id = id(node), indexName = spec.getIndexName(), routing = spec.routing(node);
+    		forget(indexName, removedLabel, node.getId());
+    		reqs.put(new IndexId(indexName, id, routing), delete(spec, removedLabel, id, routing));
     	}	
     	return reqs;
     }
@@ -143,34 +400,69 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
     	for (Label l: node.getLabels()) {
     		if (!indexLabels.contains(l)) continue;
     		for (ElasticSearchIndexSpec spec: indexSpecs.get(l)) {
-    		    String id = id(node), indexName = spec.getIndexName();
-    			reqs.put(new IndexId(indexName, id),
-    			         new Delete.Builder(id).index(indexName).type(l.name()).build());
+    		    if (!spec.matches(node)) continue;
+    		    String id = id(node), indexName = spec.getIndexName(), routing = spec.routing(node);
+    		    forget(indexName, l, node.getId());
+    			reqs.put(new IndexId(indexName, id, routing), delete(spec, l, id, routing));
     		}
     	}
     	return reqs;
     }
+
+    /**
+     * Deletes of the copies under the previous routing value, for the specs routed by a property
+     * whose value changed. The document under the new value is sent by the index requests.
+     */
+    private Map<IndexId, Delete> routingDeletes(Node node, Node previous) {
+        HashMap<IndexId, Delete> reqs = new HashMap<>();
+        for (Label l: node.getLabels()) {
+            if (!indexLabels.contains(l) || !previous.hasLabel(l)) continue;
+            for (ElasticSearchIndexSpec spec: indexSpecs.get(l)) {
+                if (spec.getRouting() == null || !spec.matches(previous)) continue;
+                String routing = spec.routing(previous);
+                if (routing == null ? spec.routing(node) == null : routing.equals(spec.routing(node))) continue;
+                String id = id(node), indexName = spec.getIndexName();
+                // the document may be unchanged otherwise, it has to be sent again under the new value
+                forget(indexName, l, node.getId());
+                reqs.put(new IndexId(indexName, id, routing), delete(spec, l, id, routing));
+            }
+        }
+        return reqs;
+    }
+
+    private Delete delete(ElasticSearchIndexSpec spec, Label label, String id, String routing) {
+        Delete.Builder delete = new Delete.Builder(id).index(spec.getIndexName()).type(label.name());
+        if (routing != null) delete.setParameter(Parameters.ROUTING, routing);
+        return delete.build();
+    }
     
     
+    private void forget(String indexName, Label label, long nodeId) {
+        forget("", indexName, label, nodeId);
+    }
+
+    private void forget(String scope, String indexName, Label label, long nodeId) {
+        if (fingerprints != null) {
+            fingerprints.remove(ElasticSearchFingerprintCache.key(scope + indexName + ":" + label.name(), nodeId));
+        }
+    }
+
     private String id(Node node) {
         return String.valueOf(node.getId());
     }
 
-    private Map nodeToJson(Node node, Set<String> properties) {
-        Map<String,Object> json = new LinkedHashMap<>();
-        json.put("id", id(node));
-        json.put("labels", labels(node));
+    static Map<String, Object> properties(Node node, Set<String> properties) {
+        Map<String,Object> values = new LinkedHashMap<>();
         for (String prop : properties) {
         	if (node.hasProperty(prop)) {
-        		Object value = node.getProperty(prop);
-        		json.put(prop, value);
+        		values.put(prop, node.getProperty(prop));
         	}
         }
-        return json;
+        return values;
     }
     
 
-    private String[] labels(Node node) {
+    static String[] labels(Node node) {
         List<String> result=new ArrayList<>();
         for (Label label : node.getLabels()) {
             result.add(label.name());
@@ -179,29 +471,103 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
     }
 
     @Override
-    public void afterRollback(TransactionData transactionData, Collection<BulkableAction> actions) {
+    public void afterRollback(TransactionData transactionData, Changes changes) {
+        if (changes != null && changes.fingerprinted != null) {
+            for (Long key : changes.fingerprinted) {
+                fingerprints.remove(key);
+            }
+        }
+        if (changes == null || changes.tickets == null) return;
+        for (int i = 0; i < clusters.size(); i++) {
+            clusters.get(i).getTracker().done(changes.tickets[i]);
+        }
 
     }
 
-    @Override
-    public void completed(JestResult jestResult) {
-        if (jestResult.isSucceeded() && jestResult.getErrorMessage() == null) {
-            logger.debug("ElasticSearch Update Success");
-        } else {
-            logger.warn("ElasticSearch Update Failed: " + jestResult.getErrorMessage());
+    static boolean isBulkSucceeded(JestResult jestResult) {
+        if (!jestResult.isSucceeded() || jestResult.getErrorMessage() != null) return false;
+        JsonObject json = jestResult.getJsonObject();
+        return json == null || !json.has("errors") || !json.get("errors").getAsBoolean();
+    }
+
+    static class Changes {
+        final Map<IndexId, BulkableAction> actions;
+        // ids of nodes whose index requests are built in parallel after commit
+        final long[] deferred;
+        // one per cluster, null if there is nothing to send
+        final ElasticSearchTransactionTracker.Ticket[] tickets;
+        // fingerprints stored for this transaction, forgotten again on rollback
+        Collection<Long> fingerprinted;
+
+        Changes(Map<IndexId, BulkableAction> actions, long[] deferred, ElasticSearchTransactionTracker.Ticket[] tickets) {
+            this.actions = actions;
+            this.deferred = deferred;
+            this.tickets = tickets;
         }
     }
 
-    @Override
-    public void failed(Exception e) {
-        logger.warn("Problem Updating ElasticSearch ",e);
+    /**
+     * Renders the index requests of a range of node ids, splitting it across the pool.
+     * Every leaf reads the committed nodes in its own transaction.
+     */
+    private class IndexTask extends RecursiveTask<Map<IndexId, BulkableAction>> {
+        private static final int LEAF_SIZE = 1000;
+        private final long[] ids;
+        private final int from, to;
+        private final boolean replay;
+        private final Map<Long, Set<Label>> lost;
+        private final String scope;
+
+        IndexTask(long[] ids, int from, int to) {
+            this(ids, from, to, false, null, "");
+        }
+
+        /** @param replay build the requests of {@link #replayRequests(long, Map, String, Map)} with lost and scope */
+        IndexTask(long[] ids, int from, int to, boolean replay, Map<Long, Set<Label>> lost, String scope) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+            this.replay = replay;
+            this.lost = lost;
+            this.scope = scope;
+        }
+
+        @Override
+        protected Map<IndexId, BulkableAction> compute() {
+            if (to - from <= LEAF_SIZE) {
+                Map<IndexId, BulkableAction> reqs = new HashMap<>((to - from) * 2);
+                try (Transaction tx = gds.beginTx()) {
+                    for (int i = from; i < to; i++) {
+                        if (replay) {
+                            replayRequests(ids[i], lost, scope, reqs);
+                            continue;
+                        }
+                        try {
+                            reqs.putAll(indexRequests(gds.getNodeById(ids[i])));
+                        } catch (NotFoundException e) {
+                            // deleted by a later transaction, which sends the delete itself
+                        }
+                    }
+                    tx.success();
+                }
+                return reqs;
+            }
+            int mid = (from + to) >>> 1;
+            IndexTask left = new IndexTask(ids, from, mid, replay, lost, scope);
+            left.fork();
+            Map<IndexId, BulkableAction> right = new IndexTask(ids, mid, to, replay, lost, scope).compute();
+            Map<IndexId, BulkableAction> reqs = left.join();
+            reqs.putAll(right);
+            return reqs;
+        }
     }
-    
+
     private class IndexId {
-        final String indexName, id;
-        public IndexId(String indexName, String id) {
+        final String indexName, id, routing;
+        public IndexId(String indexName, String id, String routing) {
             this.indexName = indexName;
             this.id = id;
+            this.routing = routing;
         }
 
         @Override
@@ -212,6 +578,7 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
             result = prime * result + ((id == null) ? 0 : id.hashCode());
             result = prime * result
                     + ((indexName == null) ? 0 : indexName.hashCode());
+            result = prime * result + ((routing == null) ? 0 : routing.hashCode());
             return result;
         }
 
@@ -237,6 +604,11 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
                     return false;
             } else if (!indexName.equals(other.indexName))
                 return false;
+            if (routing == null) {
+                if (other.routing != null)
+                    return false;
+            } else if (!routing.equals(other.routing))
+                return false;
             return true;
         }
         
@@ -246,7 +618,7 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
 
         @Override
         public String toString() {
-            return "IndexId [indexName=" + indexName + ", id=" + id + "]";
+            return "IndexId [indexName=" + indexName + ", id=" + id + ", routing=" + routing + "]";
         }
         
     }
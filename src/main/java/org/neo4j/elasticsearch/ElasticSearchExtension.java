@@ -4,28 +4,57 @@ import io.searchbox.client.JestClient;
 import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.config.HttpClientConfig;
 
+import org.neo4j.graphdb.DependencyResolver;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.core.LabelTokenHolder;
+import org.neo4j.kernel.impl.transaction.log.LogicalTransactionStore;
 import org.neo4j.kernel.impl.util.StringLogger;
 import org.neo4j.kernel.lifecycle.Lifecycle;
 
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import static org.neo4j.elasticsearch.ElasticSearchKernelExtensionFactory.ElasticSearchSettings;
+
 /**
  * @author mh
  * @since 25.04.15
  */
 public class ElasticSearchExtension implements Lifecycle {
+    private static final String CHECKPOINT_ID = "transactions";
+    private static final long CHECKPOINT_INTERVAL_SECONDS = 10;
+    private static final int SEARCH_CACHE_ENTRIES = 1000;
+    private static final long FOLLOW_INTERVAL_MILLIS = 1000;
+    private static final long BACKFILL_INTERVAL_MILLIS = 1000;
     private final GraphDatabaseService gds;
     private final StringLogger logger;
-    private final String hostName;
+    private final Config config;
     private boolean enabled = true;
     private ElasticSearchEventHandler handler;
-    private JestClient client;
+    private List<ElasticSearchCluster> clusters;
     private Map indexSpec;
+    private ScheduledExecutorService executor;
+    private List<ElasticSearchCatchUp> catchUps;
+    private Map<String, Integer> weights;
+    private Map<String, Long> maxLags;
+    private ElasticSearchSearchCache searchCache;
+    private ElasticSearchHaRole haRole;
+    private final ElasticSearchImportJobs importJobs;
 
-    public ElasticSearchExtension(GraphDatabaseService gds, StringLogger logger, String hostName, String indexSpec) {
+    public ElasticSearchExtension(GraphDatabaseService gds, StringLogger logger, Config config) {
+        String indexSpec = config.get(ElasticSearchSettings.indexSpec);
         Map iSpec;
 		try {
 			iSpec = ElasticSearchIndexSpecParser.parseIndexSpec(indexSpec);
@@ -38,15 +67,223 @@ public class ElasticSearchExtension implements Lifecycle {
             logger.error("ElasticSearch Integration: Can't define index twice");
             enabled = false;
 		}
-		logger.info("Elasticsearch Integration: Running " + hostName + " - " + indexSpec);
+		logger.info("Elasticsearch Integration: Running " + config.get(ElasticSearchSettings.hostName) + " - " + indexSpec);
         this.gds = gds;
         this.logger = logger;
-        this.hostName = hostName;
+        this.config = config;
+        this.importJobs = new ElasticSearchImportJobs(gds, logger, config.get(ElasticSearchSettings.importRate),
+                config.get(ElasticSearchSettings.importMaxCommitLatency), config.get(ElasticSearchSettings.importMaxEvictions));
     }
 
     @Override
     public void init() throws Throwable {
         if (!enabled) return;
+        clusters = clusters();
+        if (clusters.isEmpty()) {
+            logger.error("ElasticSearch Integration: no cluster to send to, disabled");
+            enabled = false;
+            return;
+        }
+        for (ElasticSearchCluster cluster : clusters) {
+            cluster.start();
+        }
+
+        applyLimits();
+        handler = new ElasticSearchEventHandler(clusters,indexSpec,logger,gds);
+        handler.setParallelThreshold(config.get(ElasticSearchSettings.parallelThreshold));
+        int fingerprintCacheSize = config.get(ElasticSearchSettings.fingerprintCacheSize);
+        if (fingerprintCacheSize > 0) {
+            handler.setFingerprintCache(new ElasticSearchFingerprintCache(fingerprintCacheSize));
+        }
+        haRole = ElasticSearchHaRole.of(gds);
+        if (haRole != null) {
+            // every HA instance runs the extension, only the master ships, from its logical log
+            logger.info("ElasticSearch Integration: HA cluster member, changes are shipped by the master");
+            handler.setShipping(false);
+        }
+        gds.registerTransactionEventHandler(handler);
+        int searchCacheTtl = config.get(ElasticSearchSettings.searchCacheTtl);
+        if (searchCacheTtl > 0) {
+            searchCache = new ElasticSearchSearchCache(searchCacheTtl, SEARCH_CACHE_ENTRIES);
+        }
+        logger.info("Connecting to ElasticSearch");
+    }
+
+    /**
+     * Sets the document size limits of the specs, elasticsearch.index.&lt;name&gt;.* keys override
+     * the defaults for an index.
+     */
+    private void applyLimits() {
+        ElasticSearchDocumentLimits defaults = new ElasticSearchDocumentLimits(
+                config.get(ElasticSearchSettings.maxPropertyBytes),
+                config.get(ElasticSearchSettings.maxArrayLength),
+                config.get(ElasticSearchSettings.maxDocumentBytes),
+                ElasticSearchDocumentLimits.policy(config.get(ElasticSearchSettings.oversizePolicy)));
+        Map<String, String> params = config.getParams();
+        for (Object specs : indexSpec.values()) {
+            for (ElasticSearchIndexSpec spec : (List<ElasticSearchIndexSpec>) specs) {
+                String prefix = "elasticsearch.index." + spec.getIndexName() + ".";
+                Map<String, String> overrides = new HashMap<>();
+                for (Map.Entry<String, String> e : params.entrySet()) {
+                    if (e.getKey().startsWith(prefix)) overrides.put(e.getKey().substring(prefix.length()), e.getValue());
+                }
+                spec.setLimits(defaults.with(overrides));
+                if (!spec.getLimits().isUnlimited()) {
+                    logger.info("ElasticSearch Integration: limits of " + spec.getIndexName() + " " + spec.getLimits());
+                }
+            }
+        }
+    }
+
+    /** @return counts of writes dropped as unchanged and of values and documents over their size limits */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        ElasticSearchFingerprintCache fingerprints = handler.getFingerprintCache();
+        metrics.put("unchanged_skipped", fingerprints == null ? 0 : fingerprints.getSkipped());
+        metrics.putAll(handler.getDocumentWriter().getMetrics());
+        return metrics;
+    }
+
+    /** @return the client of the first cluster receiving the index, null if there is none */
+    JestClient searchClient(String index) {
+        ElasticSearchCluster cluster = getCluster(index);
+        return cluster == null ? null : cluster.getClient();
+    }
+
+    /** @return the import jobs, they run whether the extension is enabled or not */
+    ElasticSearchImportJobs getImportJobs() {
+        return importJobs;
+    }
+
+    /** @return the first cluster receiving the index, null if there is none */
+    ElasticSearchCluster getCluster(String index) {
+        if (!enabled) return null;
+        for (ElasticSearchCluster cluster : clusters) {
+            if (cluster.accepts(index)) return cluster;
+        }
+        return null;
+    }
+
+    /** @return all clusters that receive the index */
+    List<ElasticSearchCluster> getClusters(String index) {
+        List<ElasticSearchCluster> result = new ArrayList<>();
+        if (!enabled) return result;
+        for (ElasticSearchCluster cluster : clusters) {
+            if (cluster.accepts(index)) result.add(cluster);
+        }
+        return result;
+    }
+
+    Map<Label, List<ElasticSearchIndexSpec>> getIndexSpecs() {
+        return indexSpec;
+    }
+
+    ElasticSearchEventHandler getHandler() {
+        return handler;
+    }
+
+    /** @return the id up to which all committed transactions have been indexed in every cluster */
+    public long getIndexedTransaction() {
+        long indexed = Long.MAX_VALUE;
+        for (ElasticSearchCluster cluster : clusters) {
+            indexed = Math.min(indexed, cluster.getTracker().delivered());
+        }
+        return indexed;
+    }
+
+    public long getLastCommittedTransaction() {
+        return clusters.get(0).getTracker().lastCommitted();
+    }
+
+    /** @return how long the oldest transaction not yet indexed has been waiting in ms */
+    public long getLagMillis() {
+        long lag = 0;
+        for (ElasticSearchCluster cluster : clusters) {
+            lag = Math.max(lag, cluster.getTracker().lagMillis());
+        }
+        return lag;
+    }
+
+    /** @return the number of committed transactions not yet indexed */
+    public long getLagTransactions() {
+        return Math.max(0, getLastCommittedTransaction() - getIndexedTransaction());
+    }
+
+    /**
+     * Waits until the changes of transaction txId and all before it are indexed in every cluster,
+     * for read-your-writes searches.
+     * @return false if that didn't happen within the timeout
+     */
+    public boolean awaitIndexed(long txId, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (ElasticSearchCluster cluster : clusters) {
+            if (!cluster.getTracker().awaitDelivered(txId, deadline - System.currentTimeMillis())) return false;
+        }
+        return true;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    ElasticSearchSearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * The clusters listed in elasticsearch.clusters, each configured by elasticsearch.cluster.&lt;name&gt;.* keys,
+     * or a single cluster at elasticsearch.host_name.
+     */
+    private List<ElasticSearchCluster> clusters() {
+        weights = new HashMap<>();
+        for (Map.Entry<String, String> e : pairs(config.get(ElasticSearchSettings.indexWeights)).entrySet()) {
+            Long weight = number(ElasticSearchSettings.indexWeights.name(), e.getKey(), e.getValue());
+            if (weight != null) weights.put(e.getKey(), weight.intValue());
+        }
+        maxLags = new HashMap<>();
+        for (Map.Entry<String, String> e : pairs(config.get(ElasticSearchSettings.indexMaxLag)).entrySet()) {
+            Long maxLag = number(ElasticSearchSettings.indexMaxLag.name(), e.getKey(), e.getValue());
+            if (maxLag != null) maxLags.put(e.getKey(), maxLag);
+        }
+        List<ElasticSearchCluster> result = new ArrayList<>();
+        String names = config.get(ElasticSearchSettings.clusters);
+        if (names == null || names.trim().isEmpty()) {
+            if (config.get(ElasticSearchSettings.hostName) == null) {
+                logger.error("ElasticSearch Integration: elasticsearch.host_name isn't set");
+                return result;
+            }
+            result.add(cluster(ElasticSearchCluster.DEFAULT_NAME, config.get(ElasticSearchSettings.hostName), null,
+                    config.get(ElasticSearchSettings.queueSize), config.get(ElasticSearchSettings.concurrency),
+                    config.get(ElasticSearchSettings.shardRouting)));
+            return result;
+        }
+        Map<String, String> params = config.getParams();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) continue;
+            String prefix = "elasticsearch.cluster." + name + ".";
+            String indexes = params.get(prefix + "indexes");
+            String hostName = params.get(prefix + "host_name");
+            if (hostName == null || hostName.trim().isEmpty()) {
+                hostName = config.get(ElasticSearchSettings.hostName);
+                if (hostName == null) {
+                    logger.error("ElasticSearch Integration: cluster " + name + " has no " + prefix + "host_name and "
+                            + "elasticsearch.host_name isn't set either, skipping it");
+                    continue;
+                }
+                logger.warn("ElasticSearch Integration: cluster " + name + " has no " + prefix + "host_name, using " + hostName);
+            }
+            result.add(cluster(name, hostName.trim(), indexes == null ? null : split(indexes),
+                    intParam(params, prefix + "queue_size", config.get(ElasticSearchSettings.queueSize)),
+                    intParam(params, prefix + "concurrency", config.get(ElasticSearchSettings.concurrency)),
+                    params.containsKey(prefix + "shard_routing") ? Boolean.parseBoolean(params.get(prefix + "shard_routing"))
+                            : config.get(ElasticSearchSettings.shardRouting)));
+        }
+        return result;
+    }
+
+    private ElasticSearchCluster cluster(String name, String hostName, Set<String> indexes, int queueSize, int concurrency,
+                                         boolean shardRouting) {
         JestClientFactory factory = new JestClientFactory();
         factory.setHttpClientConfig(new HttpClientConfig
                 .Builder(hostName)
@@ -54,27 +291,120 @@ public class ElasticSearchExtension implements Lifecycle {
                 .discoveryEnabled(true)
                 .discoveryFrequency(1l, TimeUnit.MINUTES)
                 .build());
-        client = factory.getObject();
+        JestClient client = factory.getObject();
+        logger.info("ElasticSearch Integration: cluster " + name + " at " + hostName + (indexes == null ? "" : " for " + indexes));
+        ElasticSearchScheduler scheduler = new ElasticSearchScheduler(weights, maxLags);
+        ElasticSearchCluster cluster = new ElasticSearchCluster(name, client, indexes, ElasticSearchTransactionTracker.of(gds),
+                logger, scheduler, queueSize, config.get(ElasticSearchSettings.bulkSize), concurrency);
+        if (shardRouting) {
+            cluster.setShardRouter(new ElasticSearchShardRouter(client, indexes != null ? indexes : specIndexes(), logger));
+        }
+        return cluster;
+    }
 
-        handler = new ElasticSearchEventHandler(client,indexSpec,logger,gds);
-        gds.registerTransactionEventHandler(handler);
-        logger.info("Connecting to ElasticSearch");
+    /** @return the names of all indexes of the index spec */
+    private Set<String> specIndexes() {
+        Set<String> result = new LinkedHashSet<>();
+        for (Object specs : indexSpec.values()) {
+            for (ElasticSearchIndexSpec spec : (List<ElasticSearchIndexSpec>) specs) {
+                result.add(spec.getIndexName());
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> split(String values) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String value : values.split(",")) {
+            if (!value.trim().isEmpty()) result.add(value.trim());
+        }
+        return result;
+    }
+
+    /** Parses name:value pairs like people:10,audit:1 */
+    private static Map<String, String> pairs(String values) {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (values == null) return result;
+        for (String pair : values.split(",")) {
+            int colon = pair.indexOf(':');
+            if (colon > 0) result.put(pair.substring(0, colon).trim(), pair.substring(colon + 1).trim());
+        }
+        return result;
+    }
+
+    private int intParam(Map<String, String> params, String key, int defaultValue) {
+        String value = params.get(key);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("ElasticSearch Integration: " + key + " isn't a number: " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /** @return the value of the index in a setting of name:value pairs, null if it isn't a number */
+    private Long number(String setting, String index, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warn("ElasticSearch Integration: " + setting + " has no number for " + index + ": " + value + ", ignoring it");
+            return null;
+        }
     }
 
     @Override
     public void start() throws Throwable {
+        if (!enabled) return;
+        DependencyResolver resolver = ((GraphDatabaseAPI) gds).getDependencyResolver();
+        LogicalTransactionStore txStore = resolver.resolveDependency(LogicalTransactionStore.class);
+        LabelTokenHolder labelTokens = resolver.resolveDependency(LabelTokenHolder.class);
+        executor = Executors.newScheduledThreadPool(clusters.size() * 2);
+        catchUps = new ArrayList<>();
+        for (ElasticSearchCluster cluster : clusters) {
+            final ElasticSearchCatchUp catchUp = new ElasticSearchCatchUp(cluster, handler,
+                    new ElasticSearchCheckpoint(cluster.getClient(), CHECKPOINT_ID), txStore, labelTokens, logger,
+                    config.get(ElasticSearchSettings.catchUpRate));
+            catchUps.add(catchUp);
+            if (haRole != null) catchUp.follow(haRole);
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    catchUp.tick();
+                }
+            }, 0, haRole == null ? CHECKPOINT_INTERVAL_SECONDS * 1000 : FOLLOW_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+            int backfillRate = config.get(ElasticSearchSettings.backfillRate);
+            if (backfillRate <= 0) continue;
+            final ElasticSearchBackfill backfill = new ElasticSearchBackfill(cluster, handler, indexSpec, gds, logger, backfillRate);
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (haRole == null || haRole.isMaster()) backfill.tick();
+                }
+            }, BACKFILL_INTERVAL_MILLIS, BACKFILL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
     public void stop() throws Throwable {
-
+        importJobs.shutdown();
+        if (!enabled) return;
+        executor.shutdownNow();
+        executor.awaitTermination(CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        for (ElasticSearchCatchUp catchUp : catchUps) {
+            catchUp.saveCheckpoint();
+        }
     }
 
     @Override
     public void shutdown() throws Throwable {
         if (!enabled) return;
         gds.unregisterTransactionEventHandler(handler);
-        client.shutdownClient();
+        handler.shutdown();
+        for (ElasticSearchCluster cluster : clusters) {
+            cluster.shutdown();
+        }
         logger.info("Disconnected from ElasticSearch");
     }
 
@@ -0,0 +1,101 @@
+package org.neo4j.elasticsearch;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers a 64 bit hash of the last document sent for each (index spec, node) pair, so that
+ * writes which don't change the document can be dropped. The table lives off-heap in a fixed
+ * number of direct mapped slots of 16 bytes; a colliding entry simply replaces the previous one.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchFingerprintCache {
+    private static final int SLOT_SIZE = 16;
+    private static final int LOCK_STRIPES = 64;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ByteBuffer slots;
+    private final int mask;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * @param size number of entries, rounded up to a power of two
+     */
+    ElasticSearchFingerprintCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        this.mask = capacity - 1;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    static long key(String spec, long nodeId) {
+        return mix(nodeId ^ ((long) spec.hashCode() << 32));
+    }
+
+    static long fingerprint(String document) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < document.length(); i++) {
+            hash ^= document.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        // 0 marks an empty slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Stores the fingerprint.
+     * @return false if the same fingerprint was stored for the key already
+     */
+    boolean update(long key, long fingerprint) {
+        int index = (int) (key & mask);
+        int slot = index * SLOT_SIZE;
+        synchronized (locks[index & (LOCK_STRIPES - 1)]) {
+            if (slots.getLong(slot) == key && slots.getLong(slot + 8) == fingerprint) {
+                skipped.incrementAndGet();
+                return false;
+            }
+            slots.putLong(slot, key);
+            slots.putLong(slot + 8, fingerprint);
+            return true;
+        }
+    }
+
+    void put(long key, long fingerprint) {
+        int index = (int) (key & mask);
+        int slot = index * SLOT_SIZE;
+        synchronized (locks[index & (LOCK_STRIPES - 1)]) {
+            slots.putLong(slot, key);
+            slots.putLong(slot + 8, fingerprint);
+        }
+    }
+
+    void remove(long key) {
+        int index = (int) (key & mask);
+        int slot = index * SLOT_SIZE;
+        synchronized (locks[index & (LOCK_STRIPES - 1)]) {
+            if (slots.getLong(slot) == key) {
+                slots.putLong(slot + 8, 0);
+            }
+        }
+    }
+
+    /** @return the number of writes dropped because the document didn't change */
+    long getSkipped() {
+        return skipped.get();
+    }
+
+    /** murmur3 finalizer, a bijection that spreads node ids over the slots */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
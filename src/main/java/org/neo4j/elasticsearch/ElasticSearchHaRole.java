@@ -0,0 +1,39 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.lang.reflect.Method;
+
+/**
+ * The role of this instance in a Neo4j HA cluster. HA is part of the enterprise edition, so
+ * HighlyAvailableGraphDatabase.isMaster() is looked up reflectively.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchHaRole {
+    private final GraphDatabaseService gds;
+    private final Method isMaster;
+
+    private ElasticSearchHaRole(GraphDatabaseService gds, Method isMaster) {
+        this.gds = gds;
+        this.isMaster = isMaster;
+    }
+
+    /** @return the role of the database, null if it isn't part of an HA cluster */
+    static ElasticSearchHaRole of(GraphDatabaseService gds) {
+        try {
+            return new ElasticSearchHaRole(gds, gds.getClass().getMethod("isMaster"));
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /** @return false while the instance is a slave or its role is unknown, e.g. during an election */
+    boolean isMaster() {
+        try {
+            return (Boolean) isMaster.invoke(gds);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -3,11 +3,7 @@ package org.neo4j.elasticsearch;
 import io.searchbox.client.JestClient;
 import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.config.HttpClientConfig;
-import io.searchbox.core.Bulk;
-import io.searchbox.core.Bulk.Builder;
-import io.searchbox.core.Index;
 
-import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,7 +17,6 @@ import org.neo4j.shell.Session;
 import org.neo4j.shell.impl.AbstractApp;
 import org.neo4j.shell.kernel.GraphDatabaseShellServer;
 import org.neo4j.graphdb.Label;
-import org.neo4j.graphdb.Result;
 import org.neo4j.helpers.Service;
 import org.neo4j.kernel.GraphDatabaseAPI;
 import org.neo4j.shell.App;
@@ -30,15 +25,22 @@ import org.neo4j.shell.App;
 public class ElasticSearchImportApp extends AbstractApp {
     
     private final String ES_DEFAULT_HOST = "http://localhost:9200";
-    private final String ID_COLUMN_ALIAS = "__node_id";
-    private final String LABELS_COLUMN_ALIAS = "__node_labels";
-    private JestClient esClient;
     
     {
         addOptionDefinition( "s", new OptionDefinition( OptionValueType.MUST,
                 "Indexing specification (eg: people:Person(first_name,last_name)" ) );
         addOptionDefinition( "h", new OptionDefinition( OptionValueType.MAY,
                 "ElasticSearch host name. Default is http://localhost:9200"));
+        addOptionDefinition( "b", new OptionDefinition( OptionValueType.NONE,
+                "Bulk load: disable refreshes and replicas of the target indexes during the import" ) );
+        addOptionDefinition( "m", new OptionDefinition( OptionValueType.NONE,
+                "Create missing target indexes with a mapping derived from the index spec" ) );
+        addOptionDefinition( "l", new OptionDefinition( OptionValueType.MUST,
+                "Document size limits (eg: max_property_bytes=32766,max_array_length=1000,max_document_bytes=1048576,oversize_policy=truncate)" ) );
+        addOptionDefinition( "d", new OptionDefinition( OptionValueType.NONE,
+                "Run the import as background job, see elasticsearch-jobs" ) );
+        addOptionDefinition( "r", new OptionDefinition( OptionValueType.MUST,
+                "Maximum number of nodes per second, lowered while the database is under load. Default is no limit, elasticsearch.import_rate for background jobs" ) );
         
     }
 
@@ -48,6 +50,10 @@ public class ElasticSearchImportApp extends AbstractApp {
         GraphDatabaseAPI db = getServer().getDb();
 
         Map<Label, List<ElasticSearchIndexSpec>> indexSpecs = ElasticSearchIndexSpecParser.parseIndexSpec(parser.option("s", null));
+        ElasticSearchDocumentLimits limits = ElasticSearchDocumentLimits.NONE.with(limits(parser.option("l", null)));
+        boolean background = parser.options().containsKey("d");
+        String rate = parser.option("r", null);
+        ElasticSearchImportJobs jobs = db.getDependencyResolver().resolveDependency(ElasticSearchExtension.class).getImportJobs();
         
         // setup ES client
         String esHost = parser.option("h", ES_DEFAULT_HOST);
@@ -55,21 +61,21 @@ public class ElasticSearchImportApp extends AbstractApp {
         factory.setHttpClientConfig(new HttpClientConfig
                 .Builder(esHost)
                 .build());
-        esClient = factory.getObject();
+        JestClient esClient = factory.getObject();
         out.println(String.format("Connected to ES cluster: %s", esHost));
-        
-        for (Map.Entry<Label, List<ElasticSearchIndexSpec>> e: indexSpecs.entrySet()) {
-            for (ElasticSearchIndexSpec spec: e.getValue()) {
-                String query = generateQuery(e.getKey(), spec);
-                Result result = db.execute(query);
-                Bulk reqs = indexRequests(result, spec.getIndexName(), e.getKey(), spec.getProperties());
-                out.println(String.format("Indexing %s to %s", e.getKey().name(), spec.getIndexName()));
-                esClient.execute(reqs);
-            }
+
+        // in the session the import runs at full speed unless limited, in the background at the configured rate
+        ElasticSearchImportThrottle throttle = jobs.throttle(rate != null ? Integer.parseInt(rate) : background ? -1 : 0);
+        ElasticSearchImportJob job = new ElasticSearchImportJob(db, esClient, indexSpecs, limits, throttle,
+                parser.options().containsKey("m"), parser.options().containsKey("b"), jobs.getLogger());
+        if (background) {
+            jobs.submit(job);
+            out.println(String.format("Started import job %d at %s, see elasticsearch-jobs", job.getId(), throttle));
+        } else {
+            job.setOutput(out);
+            jobs.run(job);
         }
         
-        esClient.shutdownClient();
-        
         return Continuation.INPUT_COMPLETE;
     }
     
@@ -89,47 +95,16 @@ public class ElasticSearchImportApp extends AbstractApp {
     {
         return "Import index specs to ElasticSearch";
     }
-    
-    
-    private String generateQuery(Label label, ElasticSearchIndexSpec spec) {
-        StringBuilder sb = new StringBuilder(
-                String.format("MATCH (n:%s) RETURN id(n) as %s, labels(n) as %s,", 
-                        label.name(), 
-                        ID_COLUMN_ALIAS,
-                        LABELS_COLUMN_ALIAS)
-                );
-        Boolean first = true;
-        for (String property: spec.getProperties()) {
-            if (!first) {
-                sb.append(", ");
-            }
-            sb.append(String.format("n.%s as %s", property, property));
-            first = false;
-        }
-        return sb.toString();
-    }
-    
-    private Bulk indexRequests(Result result, String index, Label label, Collection<String> properties) {
-        
-        Builder bulk = new Bulk.Builder().defaultIndex(index).defaultType(label.name());
-      
-        while (result.hasNext()) {
-            Map<String, Object> row = result.next();
-            bulk.addAction(new Index.Builder(rowToJson(row, properties)).id(String.valueOf(row.get(ID_COLUMN_ALIAS))).build());
-        }
-        
-        return bulk.build();
-    }
 
-    private Map rowToJson(Map<String,Object> row, Collection<String> properties) {
-        Map<String,Object> json = new LinkedHashMap<>();
-        json.put("id", row.get(ID_COLUMN_ALIAS));
-        json.put("labels", row.get(LABELS_COLUMN_ALIAS));
-        for (String prop : properties) {
-            Object value = row.get(prop);
-            json.put(prop, value);
+    /** Parses key=value pairs like max_property_bytes=32766,oversize_policy=hash */
+    private Map<String, String> limits(String option) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (option == null) return values;
+        for (String pair : option.split(",")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) values.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
         }
-        return json;
+        return values;
     }
     
     
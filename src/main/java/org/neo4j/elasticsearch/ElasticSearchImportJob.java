@@ -0,0 +1,356 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestClient;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+import io.searchbox.params.Parameters;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.shell.Output;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Imports the nodes of index specs in bulks, at most at the rate of its throttle, which backs off
+ * while the database is under load. Runs in the shell session or in the background, where it can
+ * be paused, resumed and cancelled through {@link ElasticSearchImportJobs}.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchImportJob implements Runnable {
+    enum State { QUEUED, RUNNING, PAUSED, CANCELLED, DONE, FAILED }
+
+    private static final int BULK_SIZE = 1000;
+    // node ids read from the label scan per transaction
+    private static final int PAGE_SIZE = 10 * BULK_SIZE;
+
+    private final GraphDatabaseAPI db;
+    private final JestClient client;
+    private final Map<Label, List<ElasticSearchIndexSpec>> indexSpecs;
+    private final ElasticSearchDocumentLimits limits;
+    private final ElasticSearchDocumentWriter documents = new ElasticSearchDocumentWriter();
+    private final ElasticSearchImportThrottle throttle;
+    private final boolean createMappings;
+    private final boolean bulkLoad;
+    private final StringLogger logger;
+    private ElasticSearchLoadMonitor monitor;
+    private Output out;
+    private int id;
+    private State state = State.QUEUED;
+    private volatile String current = "";
+    private volatile long imported = 0;
+    private volatile String error;
+
+    ElasticSearchImportJob(GraphDatabaseAPI db, JestClient client, Map<Label, List<ElasticSearchIndexSpec>> indexSpecs,
+                           ElasticSearchDocumentLimits limits, ElasticSearchImportThrottle throttle,
+                           boolean createMappings, boolean bulkLoad, StringLogger logger) {
+        this.db = db;
+        this.client = client;
+        this.indexSpecs = indexSpecs;
+        this.limits = limits;
+        this.throttle = throttle;
+        this.createMappings = createMappings;
+        this.bulkLoad = bulkLoad;
+        this.logger = logger;
+    }
+
+    /**
+     * Called when the job is registered.
+     * @param monitor the load to throttle on, null if the job isn't rate limited
+     */
+    void register(int id, ElasticSearchLoadMonitor monitor) {
+        this.id = id;
+        this.monitor = monitor;
+    }
+
+    /** Reports progress to the shell session instead of the log, for jobs running in it. */
+    void setOutput(Output out) {
+        this.out = out;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    boolean isLimited() {
+        return throttle.isLimited();
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized boolean pause() {
+        if (state != State.RUNNING && state != State.QUEUED) return false;
+        state = State.PAUSED;
+        return true;
+    }
+
+    synchronized boolean resume() {
+        if (state != State.PAUSED) return false;
+        state = State.RUNNING;
+        notifyAll();
+        return true;
+    }
+
+    synchronized boolean cancel() {
+        if (isFinished()) return false;
+        state = State.CANCELLED;
+        notifyAll();
+        return true;
+    }
+
+    synchronized boolean isFinished() {
+        return state == State.CANCELLED || state == State.DONE || state == State.FAILED;
+    }
+
+    private synchronized boolean start() {
+        if (state == State.QUEUED) state = State.RUNNING;
+        return !isFinished();
+    }
+
+    private synchronized void finish(State finished) {
+        if (state != State.CANCELLED) state = finished;
+    }
+
+    /** Blocks while the job is paused. @return false if it was cancelled */
+    private synchronized boolean proceed() throws InterruptedException {
+        while (state == State.PAUSED) {
+            wait();
+        }
+        return state == State.RUNNING;
+    }
+
+    @Override
+    public void run() {
+        if (!start()) return;
+        ElasticSearchIndexSettings settings = new ElasticSearchIndexSettings(client);
+        Map<String, Map<String, String>> previousSettings = new LinkedHashMap<>();
+        try {
+            // paused before it started
+            if (!proceed()) return;
+            if (createMappings) {
+                createIndexes(settings);
+            }
+            if (bulkLoad) {
+                for (String index : indexNames()) {
+                    previousSettings.put(index, settings.prepareForBulk(index));
+                    report(String.format("Prepared %s for bulk loading", index));
+                }
+            }
+            for (Map.Entry<Label, List<ElasticSearchIndexSpec>> e : indexSpecs.entrySet()) {
+                for (ElasticSearchIndexSpec spec : e.getValue()) {
+                    current = e.getKey().name() + " to " + spec.getIndexName();
+                    report(String.format("Indexing %s", current));
+                    if (!importSpec(e.getKey(), spec)) {
+                        report(String.format("Import job %d cancelled after %d nodes", id, imported));
+                        return;
+                    }
+                }
+            }
+            if (!limits.isUnlimited()) {
+                report(String.format("Size limits applied: %s", documents.getMetrics()));
+            }
+            finish(State.DONE);
+            report(String.format("Import job %d done, %d nodes", id, imported));
+        } catch (InterruptedException e) {
+            cancel();
+        } catch (Exception e) {
+            error = e.getMessage();
+            finish(State.FAILED);
+            logger.warn("ElasticSearch import job " + id + " failed", e);
+            report(String.format("Import job %d failed: %s", id, error));
+        } finally {
+            for (Map.Entry<String, Map<String, String>> e : previousSettings.entrySet()) {
+                try {
+                    settings.restore(e.getKey(), e.getValue());
+                    report(String.format("Restored settings of %s", e.getKey()));
+                } catch (Exception ex) {
+                    report(String.format("Could not restore settings of %s: %s", e.getKey(), ex.getMessage()));
+                }
+            }
+            client.shutdownClient();
+        }
+    }
+
+    /**
+     * Reads the nodes of the label from the label scan in pages, each resuming after the last
+     * node id of the one before and read in a transaction of its own, so no transaction stays
+     * open between bulks or while the job is paused.
+     * @return false if the job was cancelled
+     */
+    private boolean importSpec(Label label, ElasticSearchIndexSpec spec) throws Exception {
+        ElasticSearchLabelScan scan = new ElasticSearchLabelScan(db, label, PAGE_SIZE, -1);
+        List<Long> page = scan.next();
+        int next = 0;
+        while (next < page.size()) {
+            if (!proceed()) return false;
+            long start = System.currentTimeMillis();
+            int quota = throttle.isLimited() ? throttle.getRate() : BULK_SIZE;
+            while (quota > 0 && next < page.size()) {
+                List<BulkableAction> actions = new ArrayList<>(Math.min(quota, BULK_SIZE));
+                int end = Math.min(page.size(), next + Math.min(quota, BULK_SIZE));
+                read(label, spec, page.subList(next, end), actions);
+                send(actions, spec.getIndexName());
+                imported += actions.size();
+                quota -= end - next;
+                next = end;
+                if (next == page.size()) {
+                    page = scan.next();
+                    next = 0;
+                }
+            }
+            if (throttle.isLimited()) {
+                long elapsed = System.currentTimeMillis() - start;
+                if (elapsed < 1000) Thread.sleep(1000 - elapsed);
+                monitor.sample();
+                throttle.adjust(monitor.commitLatencyMillis(), monitor.evictionsPerSecond());
+            }
+        }
+        return true;
+    }
+
+    /** Adds the documents of the nodes that still have the label and match the spec. */
+    private void read(Label label, ElasticSearchIndexSpec spec, List<Long> nodeIds, List<BulkableAction> actions) {
+        try (Transaction tx = db.beginTx()) {
+            for (long id : nodeIds) {
+                Node node;
+                try {
+                    node = db.getNodeById(id);
+                } catch (NotFoundException e) {
+                    continue; // deleted since the page was read
+                }
+                if (!node.hasLabel(label) || !spec.matches(node)) continue;
+                String nodeId = String.valueOf(id);
+                String routing = spec.routing(node);
+                String json = documents.write(id, ElasticSearchEventHandler.labels(node),
+                        ElasticSearchEventHandler.properties(node, spec.getProperties()), limits);
+                if (json == null) {
+                    // over the document size limit, don't leave an earlier version searchable
+                    Delete.Builder delete = new Delete.Builder(nodeId).index(spec.getIndexName()).type(label.name());
+                    if (routing != null) delete.setParameter(Parameters.ROUTING, routing);
+                    actions.add(delete.build());
+                } else {
+                    Index.Builder index = new Index.Builder(json).index(spec.getIndexName()).type(label.name()).id(nodeId);
+                    if (routing != null) index.setParameter(Parameters.ROUTING, routing);
+                    actions.add(index.build());
+                }
+            }
+            tx.success();
+        }
+    }
+
+    private void send(List<BulkableAction> actions, String index) throws Exception {
+        if (actions.isEmpty()) return;
+        if (!ElasticSearchEventHandler.isBulkSucceeded(client.execute(new Bulk.Builder().addAction(actions).build()))) {
+            throw new IllegalStateException("ElasticSearch rejected bulk request to " + index);
+        }
+    }
+
+    private Set<String> indexNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (List<ElasticSearchIndexSpec> specs : indexSpecs.values()) {
+            for (ElasticSearchIndexSpec spec : specs) {
+                names.add(spec.getIndexName());
+            }
+        }
+        return names;
+    }
+
+    private void createIndexes(ElasticSearchIndexSettings settings) throws Exception {
+        Map<String, Map<String, Object>> mappings = new LinkedHashMap<>();
+        for (Map.Entry<Label, List<ElasticSearchIndexSpec>> e : indexSpecs.entrySet()) {
+            for (ElasticSearchIndexSpec spec : e.getValue()) {
+                if (!mappings.containsKey(spec.getIndexName())) {
+                    mappings.put(spec.getIndexName(), new LinkedHashMap<String, Object>());
+                }
+                mappings.get(spec.getIndexName()).put(e.getKey().name(),
+                        Collections.singletonMap("properties", mapping(e.getKey(), spec)));
+            }
+        }
+        for (Map.Entry<String, Map<String, Object>> e : mappings.entrySet()) {
+            if (settings.exists(e.getKey())) {
+                report(String.format("Index %s exists, keeping its mapping", e.getKey()));
+                continue;
+            }
+            settings.create(e.getKey(), Collections.singletonMap("mappings", e.getValue()));
+            report(String.format("Created index %s", e.getKey()));
+        }
+    }
+
+    /**
+     * Derives the field mapping of a spec, the type of each property is taken from a sample value.
+     */
+    private Map<String, Object> mapping(Label label, ElasticSearchIndexSpec spec) {
+        Map<String, Object> notAnalyzed = new LinkedHashMap<>();
+        notAnalyzed.put("type", "string");
+        notAnalyzed.put("index", "not_analyzed");
+
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("id", notAnalyzed);
+        properties.put("labels", notAnalyzed);
+        for (String property : spec.getProperties()) {
+            try (Result sample = db.execute(String.format("MATCH (n:%s) WHERE has(n.%s) RETURN n.%s as value LIMIT 1",
+                    label.name(), property, property))) {
+                String type = sample.hasNext() ? mappingType(sample.next().get("value")) : null;
+                if (type != null) {
+                    properties.put(property, Collections.singletonMap("type", type));
+                }
+            }
+        }
+        return properties;
+    }
+
+    private String mappingType(Object value) {
+        if (value instanceof Collection) {
+            Collection values = (Collection) value;
+            return values.isEmpty() ? null : mappingType(values.iterator().next());
+        }
+        if (value != null && value.getClass().isArray()) {
+            return Array.getLength(value) == 0 ? null : mappingType(Array.get(value, 0));
+        }
+        if (value instanceof String || value instanceof Character) return "string";
+        if (value instanceof Double || value instanceof Float) return "double";
+        if (value instanceof Number) return "long";
+        if (value instanceof Boolean) return "boolean";
+        return null;
+    }
+
+    private void report(String message) {
+        if (out == null) {
+            logger.info("ElasticSearch import job " + id + ": " + message);
+            return;
+        }
+        try {
+            out.println(message);
+        } catch (Exception e) {
+            // the session is gone, keep importing
+            out = null;
+            logger.info("ElasticSearch import job " + id + ": " + message);
+        }
+    }
+
+    public String toString() {
+        String status = String.format("%d %s %s, %d nodes, %s", id, getState().name().toLowerCase(), current, imported, throttle);
+        if (monitor != null && !isFinished()) {
+            status += String.format(", commits %.1f ms, %.0f evictions/s", monitor.commitLatencyMillis(), monitor.evictionsPerSecond());
+        }
+        return error == null ? status : status + ": " + error;
+    }
+}
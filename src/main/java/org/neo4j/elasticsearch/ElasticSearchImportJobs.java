@@ -0,0 +1,159 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The import jobs of the database, numbered in the order they were started. Background jobs
+ * run on their own threads. The load monitor rate limited jobs throttle on is only registered
+ * while one of them is unfinished. Only the last MAX_FINISHED finished jobs are kept.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchImportJobs {
+    private static final int MAX_FINISHED = 20;
+
+    private final GraphDatabaseService gds;
+    private final StringLogger logger;
+    private final int defaultRate;
+    private final long maxCommitLatencyMillis;
+    private final long maxEvictionsPerSecond;
+    private final Map<Integer, ElasticSearchImportJob> jobs = new LinkedHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Set<ElasticSearchImportJob> monitored = new HashSet<>();
+    private ElasticSearchLoadMonitor monitor;
+    private ExecutorService executor;
+
+    ElasticSearchImportJobs(GraphDatabaseService gds, StringLogger logger, int defaultRate,
+                            long maxCommitLatencyMillis, long maxEvictionsPerSecond) {
+        this.gds = gds;
+        this.logger = logger;
+        this.defaultRate = defaultRate;
+        this.maxCommitLatencyMillis = maxCommitLatencyMillis;
+        this.maxEvictionsPerSecond = maxEvictionsPerSecond;
+    }
+
+    StringLogger getLogger() {
+        return logger;
+    }
+
+    /** @param rate maximum number of nodes per second, 0 for no limit, negative for the configured default */
+    ElasticSearchImportThrottle throttle(int rate) {
+        return new ElasticSearchImportThrottle(rate < 0 ? defaultRate : rate, maxCommitLatencyMillis, maxEvictionsPerSecond);
+    }
+
+    /** Registers the job without starting it. */
+    synchronized ElasticSearchImportJob add(ElasticSearchImportJob job) {
+        if (job.isLimited()) {
+            if (monitor == null) {
+                monitor = ElasticSearchLoadMonitor.of(gds);
+                gds.registerTransactionEventHandler(monitor);
+            }
+            monitored.add(job);
+        }
+        job.register(ids.incrementAndGet(), job.isLimited() ? monitor : null);
+        jobs.put(job.getId(), job);
+        prune();
+        return job;
+    }
+
+    /** Runs the job in the calling thread, for jobs run in the shell session. */
+    void run(ElasticSearchImportJob job) {
+        add(job);
+        try {
+            job.run();
+        } finally {
+            finished(job);
+        }
+    }
+
+    synchronized ElasticSearchImportJob submit(final ElasticSearchImportJob job) {
+        add(job);
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "neo4j-elasticsearch-import-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.run();
+                } finally {
+                    finished(job);
+                }
+            }
+        });
+        return job;
+    }
+
+    /** Unregisters the load monitor once no rate limited job is left. */
+    private synchronized void finished(ElasticSearchImportJob job) {
+        if (monitored.remove(job) && monitored.isEmpty() && monitor != null) {
+            gds.unregisterTransactionEventHandler(monitor);
+            monitor = null;
+        }
+    }
+
+    synchronized ElasticSearchImportJob get(int id) {
+        return jobs.get(id);
+    }
+
+    synchronized List<ElasticSearchImportJob> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    private void prune() {
+        int finished = 0;
+        for (ElasticSearchImportJob job : jobs.values()) {
+            if (job.isFinished()) finished++;
+        }
+        for (Iterator<ElasticSearchImportJob> it = jobs.values().iterator(); it.hasNext() && finished > MAX_FINISHED; ) {
+            if (it.next().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    /** Cancels all jobs, they restore the settings of their indexes before they end. */
+    synchronized void shutdown() throws InterruptedException {
+        for (ElasticSearchImportJob job : jobs.values()) {
+            job.cancel();
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            executor = null;
+        }
+        monitored.clear();
+        if (monitor != null) {
+            gds.unregisterTransactionEventHandler(monitor);
+            monitor = null;
+        }
+    }
+
+    /** @return true while the load monitor is registered */
+    synchronized boolean isMonitoring() {
+        return monitor != null;
+    }
+}
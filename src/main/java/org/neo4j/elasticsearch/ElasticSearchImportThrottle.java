@@ -0,0 +1,62 @@
+package org.neo4j.elasticsearch;
+
+/**
+ * Rate limit of an import job that adapts to the load of the database: it is halved every second
+ * commits take longer than maxCommitLatencyMillis or the page cache evicts more than
+ * maxEvictionsPerSecond pages, and raised again in steps of a tenth of maxRate while they don't.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchImportThrottle {
+    private final int maxRate;
+    private final int minRate;
+    private final long maxCommitLatencyMillis;
+    private final long maxEvictionsPerSecond;
+    private volatile int rate;
+    private volatile boolean overloaded;
+
+    /**
+     * @param maxRate maximum number of nodes per second, 0 for no limit
+     * @param maxCommitLatencyMillis average commit time above which the rate is lowered, 0 to ignore it
+     * @param maxEvictionsPerSecond page cache evictions above which the rate is lowered, 0 to ignore them
+     */
+    ElasticSearchImportThrottle(int maxRate, long maxCommitLatencyMillis, long maxEvictionsPerSecond) {
+        this.maxRate = Math.max(0, maxRate);
+        this.minRate = Math.max(1, this.maxRate / 100);
+        this.maxCommitLatencyMillis = maxCommitLatencyMillis;
+        this.maxEvictionsPerSecond = maxEvictionsPerSecond;
+        this.rate = Math.max(minRate, this.maxRate / 10);
+    }
+
+    boolean isLimited() {
+        return maxRate > 0;
+    }
+
+    /** @return the nodes to send in the next second, 0 if unlimited */
+    int getRate() {
+        return isLimited() ? rate : 0;
+    }
+
+    /** @return true if the last adjustment lowered the rate */
+    boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /** Called once per second with the load measured meanwhile. */
+    int adjust(double commitLatencyMillis, double evictionsPerSecond) {
+        if (!isLimited()) return 0;
+        overloaded = maxCommitLatencyMillis > 0 && commitLatencyMillis > maxCommitLatencyMillis
+                || maxEvictionsPerSecond > 0 && evictionsPerSecond > maxEvictionsPerSecond;
+        if (overloaded) {
+            rate = Math.max(minRate, rate / 2);
+        } else {
+            rate = Math.min(maxRate, rate + Math.max(1, maxRate / 10));
+        }
+        return rate;
+    }
+
+    public String toString() {
+        if (!isLimited()) return "unlimited";
+        return rate + "/" + maxRate + " nodes/s" + (overloaded ? ", backing off" : "");
+    }
+}
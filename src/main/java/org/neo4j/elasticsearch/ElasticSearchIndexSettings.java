@@ -0,0 +1,188 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.indices.CreateIndex;
+import io.searchbox.indices.DeleteIndex;
+import io.searchbox.indices.IndicesExists;
+import io.searchbox.indices.Refresh;
+import io.searchbox.indices.aliases.AddAliasMapping;
+import io.searchbox.indices.aliases.AliasMapping;
+import io.searchbox.indices.aliases.GetAliases;
+import io.searchbox.indices.aliases.ModifyAliases;
+import io.searchbox.indices.aliases.RemoveAliasMapping;
+import io.searchbox.indices.mapping.GetMapping;
+import io.searchbox.indices.settings.GetSettings;
+import io.searchbox.indices.settings.UpdateSettings;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index level operations around bulk loads: switching an index to bulk friendly settings
+ * and back, creating an index with an explicit mapping, and moving an alias between indexes.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchIndexSettings {
+    static final String REFRESH_INTERVAL = "index.refresh_interval";
+    static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    static final String NUMBER_OF_SHARDS = "index.number_of_shards";
+    private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+    private static final int SWAP_ATTEMPTS = 3;
+
+    private final JestClient client;
+
+    ElasticSearchIndexSettings(JestClient client) {
+        this.client = client;
+    }
+
+    boolean exists(String index) throws Exception {
+        return client.execute(new IndicesExists.Builder(index).build()).isSucceeded();
+    }
+
+    void create(String index, Object body) throws Exception {
+        check(client.execute(new CreateIndex.Builder(index).settings(body).build()), "create index " + index);
+    }
+
+    /**
+     * Disables refreshes and replicas of the index. An index that doesn't exist yet is created
+     * that way, as the import would have created it with the defaults.
+     * @return the previous settings, to be handed to {@link #restore(String, Map)}
+     */
+    Map<String, String> prepareForBulk(String index) throws Exception {
+        if (!exists(index)) {
+            createForBulk(index, null);
+            return defaultServingSettings();
+        }
+        Map<String, String> previous = servingSettings(index);
+
+        Map<String, String> bulk = new LinkedHashMap<>();
+        bulk.put(REFRESH_INTERVAL, "-1");
+        bulk.put(NUMBER_OF_REPLICAS, "0");
+        update(index, bulk);
+        return previous;
+    }
+
+    /** @return the refresh interval and number of replicas of the index */
+    Map<String, String> servingSettings(String index) throws Exception {
+        JsonObject settings = flatSettings(index);
+        Map<String, String> serving = new LinkedHashMap<>();
+        serving.put(REFRESH_INTERVAL, value(settings.get(REFRESH_INTERVAL), DEFAULT_REFRESH_INTERVAL));
+        serving.put(NUMBER_OF_REPLICAS, value(settings.get(NUMBER_OF_REPLICAS), "1"));
+        return serving;
+    }
+
+    /** @return the ElasticSearch defaults of the settings changed for bulk loads */
+    static Map<String, String> defaultServingSettings() {
+        Map<String, String> serving = new LinkedHashMap<>();
+        serving.put(REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL);
+        serving.put(NUMBER_OF_REPLICAS, "1");
+        return serving;
+    }
+
+    /**
+     * Creates an index without refreshes and replicas, with the number of shards and the mappings
+     * of the template index, if there is one.
+     */
+    void createForBulk(String index, String template) throws Exception {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put(REFRESH_INTERVAL, "-1");
+        settings.put(NUMBER_OF_REPLICAS, "0");
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("settings", settings);
+        if (template != null) {
+            JsonElement shards = flatSettings(template).get(NUMBER_OF_SHARDS);
+            if (shards != null) settings.put(NUMBER_OF_SHARDS, shards.getAsString());
+            JestResult mappings = client.execute(new GetMapping.Builder().addIndex(template).build());
+            check(mappings, "read mappings of " + template);
+            JsonObject existing = mappings.getJsonObject().getAsJsonObject(template);
+            if (existing != null && existing.has("mappings")) body.put("mappings", existing.get("mappings"));
+        }
+        create(index, body);
+    }
+
+    /** @return the indexes behind the alias, or the index itself if the name isn't an alias; empty if it doesn't exist */
+    List<String> concreteIndexes(String name) throws Exception {
+        List<String> indexes = new ArrayList<>();
+        if (!exists(name)) return indexes;
+        JestResult result = client.execute(new GetAliases.Builder().addIndex(name).build());
+        check(result, "read aliases of " + name);
+        for (Map.Entry<String, JsonElement> e : result.getJsonObject().entrySet()) {
+            indexes.add(e.getKey());
+        }
+        return indexes;
+    }
+
+    /**
+     * Points the alias at the target index. If the name was an index of its own, that index is
+     * deleted first, ElasticSearch can't swap an index for an alias in one step. Writes arriving
+     * in between create it again, so it is deleted again for a few attempts; once it is gone,
+     * a failure leaves the name without documents until the alias is added by hand.
+     */
+    void swapAlias(String alias, List<String> previous, String target) throws Exception {
+        List<AliasMapping> mappings = new ArrayList<>();
+        boolean plain = false;
+        for (String index : previous) {
+            if (index.equals(alias)) {
+                plain = true;
+            } else {
+                mappings.add(new RemoveAliasMapping.Builder(index, alias).build());
+            }
+        }
+        mappings.add(new AddAliasMapping.Builder(target, alias).build());
+        ModifyAliases modify = new ModifyAliases.Builder(mappings).build();
+        if (!plain) {
+            check(client.execute(modify), "point alias " + alias + " at " + target);
+            return;
+        }
+        JestResult result = null;
+        for (int attempt = 0; attempt < SWAP_ATTEMPTS; attempt++) {
+            if (exists(alias)) delete(alias);
+            result = client.execute(modify);
+            if (result.isSucceeded()) return;
+        }
+        throw new IllegalStateException(String.format("ElasticSearch: deleted index %s but can't point the alias at %s: %s. " +
+                "Stop writes to %s and add the alias with POST /_aliases {\"actions\":[{\"add\":{\"index\":\"%s\",\"alias\":\"%s\"}}]}",
+                alias, target, result.getErrorMessage(), alias, target, alias));
+    }
+
+    void delete(String index) throws Exception {
+        check(client.execute(new DeleteIndex.Builder(index).build()), "delete index " + index);
+    }
+
+    private JsonObject flatSettings(String index) throws Exception {
+        JestResult result = client.execute(new GetSettings.Builder().addIndex(index).setParameter("flat_settings", true).build());
+        check(result, "read settings of " + index);
+        JsonObject indexes = result.getJsonObject();
+        // an alias answers with the settings of the index behind it
+        JsonElement settings = indexes.has(index) ? indexes.get(index) : indexes.entrySet().iterator().next().getValue();
+        return settings.getAsJsonObject().getAsJsonObject("settings");
+    }
+
+    void restore(String index, Map<String, String> previous) throws Exception {
+        update(index, previous);
+        client.execute(new Refresh.Builder().addIndex(index).build());
+    }
+
+    private void update(String index, Map<String, String> settings) throws Exception {
+        check(client.execute(new UpdateSettings.Builder(Collections.singletonMap("settings", settings)).addIndex(index).build()),
+                "update settings of " + index);
+    }
+
+    private static String value(JsonElement element, String defaultValue) {
+        return element == null || element.isJsonNull() ? defaultValue : element.getAsString();
+    }
+
+    private static void check(JestResult result, String what) {
+        if (!result.isSucceeded()) {
+            throw new IllegalStateException("ElasticSearch: can't " + what + ": " + result.getErrorMessage());
+        }
+    }
+}
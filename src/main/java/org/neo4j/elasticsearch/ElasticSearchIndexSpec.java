@@ -1,12 +1,19 @@
 package org.neo4j.elasticsearch;
 
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.PropertyContainer;
+
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 class ElasticSearchIndexSpec {
 
     private String indexName;
 	private Set<String> properties = new LinkedHashSet<String>();
+	private ElasticSearchDocumentLimits limits = ElasticSearchDocumentLimits.NONE;
+	private ElasticSearchPredicate[] predicates = new ElasticSearchPredicate[0];
+	private String routing;
     
     public ElasticSearchIndexSpec(String indexName, Set<String> properties) {
         this.indexName = indexName;
@@ -21,12 +28,74 @@ class ElasticSearchIndexSpec {
 		return properties;
 	}
 
+	ElasticSearchPredicate[] getPredicates() {
+		return predicates;
+	}
+
+	void setPredicates(ElasticSearchPredicate[] predicates) {
+		this.predicates = predicates;
+	}
+
+	/** @return the property whose value routes the documents to their shard, null to route by node id */
+	String getRouting() {
+		return routing;
+	}
+
+	void setRouting(String routing) {
+		this.routing = routing;
+	}
+
+	/** @return the routing value of the node, null if it is routed by its id */
+	String routing(PropertyContainer node) {
+		if (routing == null) return null;
+		Object value = node.getProperty(routing, null);
+		return value == null ? null : String.valueOf(value);
+	}
+
+	/** @return true if the node meets all predicates of the spec */
+	boolean matches(PropertyContainer node) {
+		for (ElasticSearchPredicate predicate : predicates) {
+			if (!predicate.matches(node)) return false;
+		}
+		return true;
+	}
+
+	/** @return a hash of everything that determines the documents of the spec */
+	String fingerprint(Label label) {
+		StringBuilder sb = new StringBuilder(indexName).append(':').append(label.name());
+		sb.append(new TreeSet<String>(properties));
+		if (routing != null) sb.append('@').append(routing);
+		for (ElasticSearchPredicate p : predicates) {
+			sb.append('[').append(p).append(']');
+		}
+		sb.append(limits);
+		return Long.toHexString(ElasticSearchFingerprintCache.fingerprint(sb.toString()));
+	}
+
+	ElasticSearchDocumentLimits getLimits() {
+		return limits;
+	}
+
+	void setLimits(ElasticSearchDocumentLimits limits) {
+		this.limits = limits;
+	}
+
 	public String toString() {
         String s = this.getClass().getSimpleName() + " " + indexName + ": (";
         for (String p: properties) {
             s += p + ",";
         }
         s += ")";
+        if (routing != null) {
+            s += "@" + routing;
+        }
+        if (predicates.length > 0) {
+            s += "[";
+            for (ElasticSearchPredicate p: predicates) {
+                s += p + ",";
+            }
+            s += "]";
+        }
         return s;
     }
 }
@@ -16,7 +16,7 @@ import org.neo4j.graphdb.Label;
 
 public class ElasticSearchIndexSpecParser {
     
-    private final static Pattern INDEX_SPEC_RE = Pattern.compile("(?<indexname>[a-z][a-z_-]+):(?<label>[A-Za-z0-9]+)\\((?<props>[^\\)]+)\\)");
+    private final static Pattern INDEX_SPEC_RE = Pattern.compile("(?<indexname>[a-z][a-z_-]+):(?<label>[A-Za-z0-9]+)\\((?<props>[^\\)]+)\\)(?:@(?<routing>[A-Za-z0-9_]+))?(?:\\[(?<predicates>[^\\]]*)\\])?");
     private final static Pattern PROPS_SPEC_RE = Pattern.compile("((?!=,)([A-Za-z0-9]+))+");
     
     public static Map<Label, List<ElasticSearchIndexSpec>> parseIndexSpec(String spec) throws ParseException {
@@ -38,8 +38,13 @@ public class ElasticSearchIndexSpecParser {
             if (map.containsKey(label)) {
             	throw new ParseException(matcher.group(), 0);
             }
+            ElasticSearchIndexSpec indexSpec = new ElasticSearchIndexSpec(matcher.group("indexname"), props);
+            indexSpec.setRouting(matcher.group("routing"));
+            if (matcher.group("predicates") != null) {
+                indexSpec.setPredicates(ElasticSearchPredicate.parse(matcher.group("predicates")));
+            }
             map.put(label,
-            		new ArrayList<ElasticSearchIndexSpec>(Arrays.asList(new ElasticSearchIndexSpec(matcher.group("indexname"), props))));
+            		new ArrayList<ElasticSearchIndexSpec>(Arrays.asList(indexSpec)));
         }
         
         return map;
@@ -0,0 +1,76 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+import com.google.gson.Gson;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Unmanaged extension that reports how far indexing lags behind the graph and lets clients
+ * wait for their writes to become searchable instead of sleeping.
+ *
+ * @since 19.10.26
+ */
+@Path("/indexed")
+public class ElasticSearchIndexedResource {
+    private static final Gson GSON = new Gson();
+    private static final int GATEWAY_TIMEOUT = 504;
+
+    private final GraphDatabaseAPI db;
+
+    public ElasticSearchIndexedResource(@Context GraphDatabaseService db) {
+        this.db = (GraphDatabaseAPI) db;
+    }
+
+    /**
+     * The watermark and lag, e.g. <code>{"last_committed":42,"indexed":40,"lag_transactions":2,"lag_ms":15}</code>
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response status() {
+        ElasticSearchExtension extension = extension();
+        if (extension == null) return Response.status(Response.Status.NOT_FOUND).build();
+        return Response.ok(GSON.toJson(status(extension)), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * Waits until transaction tx is indexed, by default the last transaction committed when
+     * the request arrived. Answers 504 if it isn't within timeout ms.
+     */
+    @GET
+    @Path("/wait")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response await(@QueryParam("tx") Long txId, @QueryParam("timeout") @DefaultValue("10000") long timeout) throws InterruptedException {
+        ElasticSearchExtension extension = extension();
+        if (extension == null) return Response.status(Response.Status.NOT_FOUND).build();
+        boolean indexed = extension.awaitIndexed(txId == null ? extension.getLastCommittedTransaction() : txId, timeout);
+        return Response.status(indexed ? Response.Status.OK.getStatusCode() : GATEWAY_TIMEOUT)
+                .entity(GSON.toJson(status(extension))).type(MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    private ElasticSearchExtension extension() {
+        ElasticSearchExtension extension = db.getDependencyResolver().resolveDependency(ElasticSearchExtension.class);
+        return extension.isEnabled() ? extension : null;
+    }
+
+    private static Map<String, Object> status(ElasticSearchExtension extension) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("last_committed", extension.getLastCommittedTransaction());
+        status.put("indexed", extension.getIndexedTransaction());
+        status.put("lag_transactions", extension.getLagTransactions());
+        status.put("lag_ms", extension.getLagMillis());
+        status.put("documents", extension.getMetrics());
+        return status;
+    }
+}
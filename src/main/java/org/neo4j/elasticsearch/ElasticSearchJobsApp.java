@@ -0,0 +1,92 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.shell.App;
+import org.neo4j.shell.AppCommandParser;
+import org.neo4j.shell.Continuation;
+import org.neo4j.shell.Output;
+import org.neo4j.shell.Session;
+import org.neo4j.shell.impl.AbstractApp;
+import org.neo4j.shell.kernel.GraphDatabaseShellServer;
+
+import java.util.List;
+
+/**
+ * Lists the import jobs of <code>elasticsearch-index</code>, and pauses, resumes or cancels them:
+ * <code>elasticsearch-jobs [status|pause|resume|cancel] [id]</code>.
+ *
+ * @since 19.10.26
+ */
+@Service.Implementation(App.class)
+public class ElasticSearchJobsApp extends AbstractApp {
+
+    @Override
+    public Continuation execute(AppCommandParser parser, Session session, Output out) throws Exception {
+        GraphDatabaseAPI db = getServer().getDb();
+        ElasticSearchImportJobs jobs = db.getDependencyResolver().resolveDependency(ElasticSearchExtension.class).getImportJobs();
+        List<String> arguments = parser.arguments();
+        String command = arguments.isEmpty() ? "status" : arguments.get(0);
+
+        if (arguments.size() < 2) {
+            if (!command.equals("status")) {
+                out.println(String.format("Usage: %s %s <id>", getName(), command));
+                return Continuation.INPUT_COMPLETE;
+            }
+            List<ElasticSearchImportJob> all = jobs.list();
+            if (all.isEmpty()) out.println("No import jobs");
+            for (ElasticSearchImportJob job : all) {
+                out.println(job.toString());
+            }
+            return Continuation.INPUT_COMPLETE;
+        }
+
+        ElasticSearchImportJob job;
+        try {
+            job = jobs.get(Integer.parseInt(arguments.get(1)));
+        } catch (NumberFormatException e) {
+            job = null;
+        }
+        if (job == null) {
+            out.println(String.format("No import job %s", arguments.get(1)));
+            return Continuation.INPUT_COMPLETE;
+        }
+        boolean changed;
+        switch (command) {
+            case "status":
+                changed = true;
+                break;
+            case "pause":
+                changed = job.pause();
+                break;
+            case "resume":
+                changed = job.resume();
+                break;
+            case "cancel":
+                changed = job.cancel();
+                break;
+            default:
+                out.println(String.format("Unknown command %s, use status, pause, resume or cancel", command));
+                return Continuation.INPUT_COMPLETE;
+        }
+        out.println(changed ? job.toString() : String.format("Can't %s job %s", command, job));
+        return Continuation.INPUT_COMPLETE;
+    }
+
+    @Override
+    public String getName() {
+        return "elasticsearch-jobs";
+    }
+
+    @Override
+    public GraphDatabaseShellServer getServer()
+    {
+        return ( GraphDatabaseShellServer ) super.getServer();
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return "Show the status of import jobs, or pause, resume or cancel one: elasticsearch-jobs [status|pause|resume|cancel] [id]";
+    }
+}
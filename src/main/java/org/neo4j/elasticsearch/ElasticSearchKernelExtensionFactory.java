@@ -26,6 +26,44 @@ public class ElasticSearchKernelExtensionFactory extends KernelExtensionFactory<
         public static Setting<HostnamePort> clusterAddress = Settings.setting("elasticsearch.address", HOSTNAME_PORT, ":9300");
         public static Setting<String> hostName = setting("elasticsearch.host_name", STRING, (String) null);
         public static Setting<String> indexSpec = setting("elasticsearch.index_spec", STRING, (String) null);
+        @Description("Number of indexed nodes in a transaction above which documents are built in parallel, 0 disables it")
+        public static Setting<Integer> parallelThreshold = setting("elasticsearch.parallel_threshold", INTEGER, "10000");
+        @Description("Maximum number of nodes per second sent when catching up on missed transactions")
+        public static Setting<Integer> catchUpRate = setting("elasticsearch.catchup_rate", INTEGER, "1000");
+        @Description("Maximum number of nodes per second sent when backfilling new or changed index specs, 0 disables backfilling")
+        public static Setting<Integer> backfillRate = setting("elasticsearch.backfill_rate", INTEGER, "1000");
+        @Description("Number of document fingerprints kept off-heap to drop writes that don't change a document, 0 disables it")
+        public static Setting<Integer> fingerprintCacheSize = setting("elasticsearch.fingerprint_cache_size", INTEGER, "1048576");
+        @Description("Time in ms responses of the search endpoint are cached, 0 disables the cache")
+        public static Setting<Integer> searchCacheTtl = setting("elasticsearch.search_cache_ttl", INTEGER, "0");
+        @Description("Comma separated names of target clusters, each configured by elasticsearch.cluster.<name>.host_name, .indexes, .queue_size and .concurrency")
+        public static Setting<String> clusters = setting("elasticsearch.clusters", STRING, (String) null);
+        @Description("Maximum number of actions waiting to be sent to a cluster")
+        public static Setting<Integer> queueSize = setting("elasticsearch.queue_size", INTEGER, "100000");
+        @Description("Number of concurrent bulk requests per cluster")
+        public static Setting<Integer> concurrency = setting("elasticsearch.concurrency", INTEGER, "2");
+        @Description("Maximum number of actions per bulk request")
+        public static Setting<Integer> bulkSize = setting("elasticsearch.bulk_size", INTEGER, "1000");
+        @Description("Share of the bulk capacity per index, e.g. people:10,audit:1, indexes not listed have weight 1")
+        public static Setting<String> indexWeights = setting("elasticsearch.index_weights", STRING, (String) null);
+        @Description("Maximum time in ms updates of an index should wait before they are sent ahead of other indexes, e.g. people:500")
+        public static Setting<String> indexMaxLag = setting("elasticsearch.index_max_lag", STRING, (String) null);
+        @Description("Maximum size of a property value in bytes, per index as elasticsearch.index.<name>.max_property_bytes, 0 is unlimited")
+        public static Setting<Integer> maxPropertyBytes = setting("elasticsearch.max_property_bytes", INTEGER, "0");
+        @Description("Maximum number of elements of an array property, per index as elasticsearch.index.<name>.max_array_length, 0 is unlimited")
+        public static Setting<Integer> maxArrayLength = setting("elasticsearch.max_array_length", INTEGER, "0");
+        @Description("Maximum size of a document in bytes, per index as elasticsearch.index.<name>.max_document_bytes, 0 is unlimited")
+        public static Setting<Integer> maxDocumentBytes = setting("elasticsearch.max_document_bytes", INTEGER, "0");
+        @Description("What to do with values over a limit: truncate, skip or hash, per index as elasticsearch.index.<name>.oversize_policy")
+        public static Setting<String> oversizePolicy = setting("elasticsearch.oversize_policy", STRING, "truncate");
+        @Description("Send bulks straight to the nodes holding the primary shards, per cluster as elasticsearch.cluster.<name>.shard_routing")
+        public static Setting<Boolean> shardRouting = setting("elasticsearch.shard_routing", BOOLEAN, FALSE);
+        @Description("Maximum number of nodes per second of background import jobs, 0 is unlimited")
+        public static Setting<Integer> importRate = setting("elasticsearch.import_rate", INTEGER, "5000");
+        @Description("Average commit time in ms above which import jobs slow down, 0 ignores it")
+        public static Setting<Integer> importMaxCommitLatency = setting("elasticsearch.import_max_commit_latency", INTEGER, "50");
+        @Description("Page cache evictions per second above which import jobs slow down, 0 ignores them")
+        public static Setting<Integer> importMaxEvictions = setting("elasticsearch.import_max_evictions", INTEGER, "1000");
         // todo settings for label, property, indexName
     }
 
@@ -36,9 +74,7 @@ public class ElasticSearchKernelExtensionFactory extends KernelExtensionFactory<
     @Override
     public Lifecycle newKernelExtension(Dependencies dependencies) throws Throwable {
         Config config = dependencies.getConfig();
-        return new ElasticSearchExtension(dependencies.getGraphDatabaseService(), dependencies.getStringLogger(),
-                config.get(ElasticSearchSettings.hostName),
-                config.get(ElasticSearchSettings.indexSpec));
+        return new ElasticSearchExtension(dependencies.getGraphDatabaseService(), dependencies.getStringLogger(), config);
     }
 
     public interface Dependencies {
@@ -0,0 +1,58 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Pages through the nodes of a label in node id order, every page read in a short transaction
+ * of its own, so no transaction stays open while the nodes are processed. The label scan store
+ * doesn't return ids in order, each page keeps the lowest ids after the last one of the previous.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchLabelScan {
+    private final GraphDatabaseService db;
+    private final Label label;
+    private final int pageSize;
+    private long last;
+
+    /** @param after the id to resume after, -1 to start at the first node */
+    ElasticSearchLabelScan(GraphDatabaseService db, Label label, int pageSize, long after) {
+        this.db = db;
+        this.label = label;
+        this.pageSize = pageSize;
+        this.last = after;
+    }
+
+    /** @return the ids of the next nodes in ascending order, empty once all were read */
+    List<Long> next() {
+        TreeSet<Long> page = new TreeSet<>();
+        try (Transaction tx = db.beginTx()) {
+            for (Node node : GlobalGraphOperations.at(db).getAllNodesWithLabel(label)) {
+                long id = node.getId();
+                if (id <= last) continue;
+                if (page.size() < pageSize) {
+                    page.add(id);
+                } else if (id < page.last()) {
+                    page.pollLast();
+                    page.add(id);
+                }
+            }
+            tx.success();
+        }
+        if (!page.isEmpty()) last = page.last();
+        return new ArrayList<>(page);
+    }
+
+    /** @return the id of the last node returned, the one to resume after */
+    long last() {
+        return last;
+    }
+}
@@ -0,0 +1,83 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.io.pagecache.monitoring.PageCacheMonitor;
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the load import jobs yield to: the average time transactions take from
+ * beforeCommit to afterCommit, and the rate of page cache evictions. Both are averaged over
+ * windows of at least a second, shared by all callers.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchLoadMonitor implements TransactionEventHandler<Long> {
+    private static final long WINDOW_MILLIS = 1000;
+
+    private final PageCacheMonitor pageCache;
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private long sampled = 0;
+    private long lastCommits, lastCommitNanos, lastEvictions;
+    private double commitLatencyMillis, evictionsPerSecond;
+
+    /** @param pageCache null if the page cache can't be monitored */
+    ElasticSearchLoadMonitor(PageCacheMonitor pageCache) {
+        this.pageCache = pageCache;
+    }
+
+    static ElasticSearchLoadMonitor of(GraphDatabaseService gds) {
+        PageCacheMonitor pageCache;
+        try {
+            pageCache = ((GraphDatabaseAPI) gds).getDependencyResolver().resolveDependency(PageCacheMonitor.class);
+        } catch (RuntimeException e) {
+            pageCache = null;
+        }
+        return new ElasticSearchLoadMonitor(pageCache);
+    }
+
+    @Override
+    public Long beforeCommit(TransactionData data) throws Exception {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Long started) {
+        if (started == null) return;
+        commitNanos.addAndGet(System.nanoTime() - started);
+        commits.incrementAndGet();
+    }
+
+    @Override
+    public void afterRollback(TransactionData data, Long started) {
+    }
+
+    /** Starts a new window if the last one is over. */
+    synchronized void sample() {
+        long now = System.currentTimeMillis();
+        if (now - sampled < WINDOW_MILLIS) return;
+        long count = commits.get(), nanos = commitNanos.get();
+        commitLatencyMillis = count == lastCommits ? 0 : (nanos - lastCommitNanos) / 1e6 / (count - lastCommits);
+        lastCommits = count;
+        lastCommitNanos = nanos;
+        if (pageCache != null) {
+            long evictions = pageCache.countEvictions();
+            evictionsPerSecond = sampled == 0 ? 0 : (evictions - lastEvictions) * 1000.0 / (now - sampled);
+            lastEvictions = evictions;
+        }
+        sampled = now;
+    }
+
+    /** @return the average commit time in the last window, 0 if nothing was committed */
+    synchronized double commitLatencyMillis() {
+        return commitLatencyMillis;
+    }
+
+    synchronized double evictionsPerSecond() {
+        return evictionsPerSecond;
+    }
+}
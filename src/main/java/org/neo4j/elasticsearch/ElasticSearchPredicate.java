@@ -0,0 +1,136 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.PropertyContainer;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A condition on a property that nodes have to meet to be indexed, written in brackets after
+ * the properties of an index spec, e.g. <code>people:Person(name)[status=active,email?,!deleted,age&gt;=18]</code>.
+ *
+ * <code>prop=value</code> and <code>prop!=value</code> compare with a number, true or false,
+ * or a string, which may be quoted. <code>prop?</code> requires the property, <code>!prop</code>
+ * its absence. <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code> and <code>&gt;=</code>
+ * compare numbers.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchPredicate {
+    private static final Pattern PREDICATE_RE = Pattern.compile(
+            "\\s*(?:!(?<absent>[A-Za-z0-9_]+)|(?<present>[A-Za-z0-9_]+)\\?|" +
+            "(?<prop>[A-Za-z0-9_]+)\\s*(?<op>>=|<=|!=|=|>|<)\\s*(?<value>'[^']*'|\"[^\"]*\"|[^,]*?))\\s*(?:,|$)");
+
+    enum Operator { EXISTS, MISSING, EQ, NE, GT, GE, LT, LE }
+
+    private final String property;
+    private final Operator operator;
+    private final Object value;
+
+    ElasticSearchPredicate(String property, Operator operator, Object value) {
+        this.property = property;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    /** Parses a comma separated list of predicates. */
+    static ElasticSearchPredicate[] parse(String predicates) throws ParseException {
+        List<ElasticSearchPredicate> result = new ArrayList<>();
+        Matcher matcher = PREDICATE_RE.matcher(predicates);
+        int end = 0;
+        while (end < predicates.length()) {
+            if (!matcher.find(end) || matcher.start() != end) throw new ParseException(predicates, end);
+            if (matcher.group("absent") != null) {
+                result.add(new ElasticSearchPredicate(matcher.group("absent"), Operator.MISSING, null));
+            } else if (matcher.group("present") != null) {
+                result.add(new ElasticSearchPredicate(matcher.group("present"), Operator.EXISTS, null));
+            } else {
+                result.add(predicate(matcher.group("prop"), matcher.group("op"), matcher.group("value").trim(), end));
+            }
+            end = matcher.end();
+        }
+        return result.toArray(new ElasticSearchPredicate[result.size()]);
+    }
+
+    private static ElasticSearchPredicate predicate(String property, String op, String literal, int offset) throws ParseException {
+        Object value = literal(literal);
+        switch (op) {
+            case "=": return new ElasticSearchPredicate(property, Operator.EQ, value);
+            case "!=": return new ElasticSearchPredicate(property, Operator.NE, value);
+        }
+        if (!(value instanceof Double)) throw new ParseException("Not a number: " + literal, offset);
+        switch (op) {
+            case ">": return new ElasticSearchPredicate(property, Operator.GT, value);
+            case ">=": return new ElasticSearchPredicate(property, Operator.GE, value);
+            case "<": return new ElasticSearchPredicate(property, Operator.LT, value);
+            default: return new ElasticSearchPredicate(property, Operator.LE, value);
+        }
+    }
+
+    private static Object literal(String literal) {
+        if (literal.length() >= 2 && (literal.startsWith("'") && literal.endsWith("'") || literal.startsWith("\"") && literal.endsWith("\""))) {
+            return literal.substring(1, literal.length() - 1);
+        }
+        if (literal.equals("true") || literal.equals("false")) return Boolean.valueOf(literal);
+        try {
+            return Double.valueOf(literal);
+        } catch (NumberFormatException e) {
+            return literal;
+        }
+    }
+
+    boolean matches(PropertyContainer container) {
+        Object actual = container.getProperty(property, null);
+        switch (operator) {
+            case EXISTS: return actual != null;
+            case MISSING: return actual == null;
+            case EQ: return actual != null && equal(actual);
+            case NE: return actual != null && !equal(actual);
+        }
+        if (!(actual instanceof Number)) return false;
+        int comparison = Double.compare(((Number) actual).doubleValue(), (Double) value);
+        switch (operator) {
+            case GT: return comparison > 0;
+            case GE: return comparison >= 0;
+            case LT: return comparison < 0;
+            default: return comparison <= 0;
+        }
+    }
+
+    private boolean equal(Object actual) {
+        if (value instanceof Double) {
+            return actual instanceof Number && ((Number) actual).doubleValue() == (Double) value;
+        }
+        return value.equals(actual instanceof Character ? actual.toString() : actual);
+    }
+
+    /** @return the predicate as Cypher condition on the node variable */
+    String toCypher(String variable) {
+        String prop = variable + ".`" + property + "`";
+        switch (operator) {
+            case EXISTS: return "has(" + prop + ")";
+            case MISSING: return "NOT has(" + prop + ")";
+            case EQ: return prop + " = " + cypherLiteral();
+            case NE: return prop + " <> " + cypherLiteral();
+            case GT: return prop + " > " + cypherLiteral();
+            case GE: return prop + " >= " + cypherLiteral();
+            case LT: return prop + " < " + cypherLiteral();
+            default: return prop + " <= " + cypherLiteral();
+        }
+    }
+
+    private String cypherLiteral() {
+        if (value instanceof String) return "'" + ((String) value).replace("\\", "\\\\").replace("'", "\\'") + "'";
+        if (value instanceof Double && (Double) value == Math.rint((Double) value) && !Double.isInfinite((Double) value)) {
+            return String.valueOf(((Double) value).longValue());
+        }
+        return String.valueOf(value);
+    }
+
+    public String toString() {
+        return toCypher("n");
+    }
+}
@@ -0,0 +1,205 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.helpers.Service;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.transaction.log.LogicalTransactionStore;
+import org.neo4j.shell.App;
+import org.neo4j.shell.AppCommandParser;
+import org.neo4j.shell.Continuation;
+import org.neo4j.shell.OptionDefinition;
+import org.neo4j.shell.OptionValueType;
+import org.neo4j.shell.Output;
+import org.neo4j.shell.Session;
+import org.neo4j.shell.impl.AbstractApp;
+import org.neo4j.shell.kernel.GraphDatabaseShellServer;
+
+/**
+ * Rebuilds indexes of the running extension while changes keep being indexed: every index is
+ * built into a new versioned index with bulk settings, while the extension writes all changes
+ * to both. Then the alias is moved to the new index and the old one dropped. Searches only fail
+ * on the first rebuild of a plain index, between its deletion and the creation of the alias.
+ *
+ * @since 19.10.26
+ */
+@Service.Implementation(App.class)
+public class ElasticSearchReindexApp extends AbstractApp {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int PAGE_SIZE = 10 * BATCH_SIZE;
+
+    {
+        addOptionDefinition( "i", new OptionDefinition( OptionValueType.MUST,
+                "Comma separated names of the indexes to rebuild. Default is all indexes of elasticsearch.index_spec" ) );
+        addOptionDefinition( "k", new OptionDefinition( OptionValueType.NONE,
+                "Keep the old indexes instead of dropping them" ) );
+    }
+
+    @Override
+    public Continuation execute(AppCommandParser parser, Session session, Output out) throws Exception {
+        GraphDatabaseAPI db = getServer().getDb();
+        ElasticSearchExtension extension = db.getDependencyResolver().resolveDependency(ElasticSearchExtension.class);
+        if (!extension.isEnabled()) {
+            out.println("The ElasticSearch extension isn't running, configure elasticsearch.host_name and elasticsearch.index_spec");
+            return Continuation.INPUT_COMPLETE;
+        }
+
+        Set<String> indexes = new LinkedHashSet<>();
+        String option = parser.option("i", null);
+        if (option != null) {
+            for (String index : option.split(",")) {
+                if (!index.trim().isEmpty()) indexes.add(index.trim());
+            }
+        } else {
+            for (List<ElasticSearchIndexSpec> specs : extension.getIndexSpecs().values()) {
+                for (ElasticSearchIndexSpec spec : specs) {
+                    indexes.add(spec.getIndexName());
+                }
+            }
+        }
+
+        for (String index : indexes) {
+            List<ElasticSearchCluster> clusters = extension.getClusters(index);
+            if (clusters.isEmpty()) {
+                out.println(String.format("No cluster receives index %s", index));
+                continue;
+            }
+            for (ElasticSearchCluster cluster : clusters) {
+                reindex(db, extension, cluster, index, parser.options().containsKey("k"), out);
+            }
+        }
+        return Continuation.INPUT_COMPLETE;
+    }
+
+    private void reindex(GraphDatabaseAPI db, ElasticSearchExtension extension, ElasticSearchCluster cluster,
+                         String index, boolean keep, Output out) throws Exception {
+        ElasticSearchIndexSettings settings = new ElasticSearchIndexSettings(cluster.getClient());
+        List<String> live = settings.concreteIndexes(index);
+        String target = index + "_" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+        Map<String, String> serving = live.isEmpty() ? null : settings.servingSettings(live.get(0));
+
+        settings.createForBulk(target, live.isEmpty() ? null : live.get(0));
+        out.println(String.format("Building %s into %s on cluster %s", index, target, cluster.getName()));
+
+        ElasticSearchTransactionTracker tracker = cluster.getTracker();
+        long from = tracker.lastCommitted();
+        cluster.mirror(index, target);
+        boolean swapping = false, swapped = false;
+        try {
+            long count = copy(db, extension, cluster, index, target);
+            out.println(String.format("Copied %d nodes to %s", count, target));
+
+            // a node read before a concurrent commit may have overwritten that commit's mirrored write
+            LogicalTransactionStore txStore = db.getDependencyResolver().resolveDependency(LogicalTransactionStore.class);
+            Set<Long> changed = ElasticSearchCatchUp.changedNodes(txStore, from, tracker.lastCommitted());
+            send(cluster, extension.getHandler(), changed, index, null);
+            out.println(String.format("Replayed %d nodes changed meanwhile", changed.size()));
+
+            settings.restore(target, serving != null ? serving : ElasticSearchIndexSettings.defaultServingSettings());
+            swapping = true;
+            settings.swapAlias(index, live, target);
+            swapped = true;
+            out.println(String.format("%s now points at %s", index, target));
+        } finally {
+            cluster.unmirror(index);
+            if (swapping && !swapped && live.contains(index)) {
+                // the old index may be gone already, the target holds the only copy
+                out.println(String.format("Rebuilding %s failed, kept %s, point %s at it before dropping it", index, target, index));
+            } else if (!swapped) {
+                out.println(String.format("Rebuilding %s failed, dropping %s", index, target));
+                try {
+                    settings.delete(target);
+                } catch (Exception e) {
+                    out.println(String.format("Could not drop %s: %s", target, e.getMessage()));
+                }
+            }
+        }
+
+        for (String old : live) {
+            if (old.equals(index)) continue; // deleted by the swap
+            if (keep) {
+                out.println(String.format("Kept %s", old));
+            } else {
+                settings.delete(old);
+                out.println(String.format("Dropped %s", old));
+            }
+        }
+    }
+
+    /**
+     * Sends the current documents of all nodes of the index into the target index. The nodes are
+     * read a page at a time, the documents are rendered and sent outside of that transaction.
+     */
+    private long copy(GraphDatabaseAPI db, ElasticSearchExtension extension, ElasticSearchCluster cluster,
+                      String index, String target) throws Exception {
+        long count = 0;
+        for (Map.Entry<Label, List<ElasticSearchIndexSpec>> e : extension.getIndexSpecs().entrySet()) {
+            boolean indexed = false;
+            for (ElasticSearchIndexSpec spec : e.getValue()) {
+                indexed |= spec.getIndexName().equals(index);
+            }
+            if (!indexed) continue;
+
+            ElasticSearchLabelScan scan = new ElasticSearchLabelScan(db, e.getKey(), PAGE_SIZE, -1);
+            for (List<Long> page = scan.next(); !page.isEmpty(); page = scan.next()) {
+                for (int from = 0; from < page.size(); from += BATCH_SIZE) {
+                    List<Long> batch = page.subList(from, Math.min(page.size(), from + BATCH_SIZE));
+                    send(cluster, extension.getHandler(), batch, index, target);
+                    count += batch.size();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sends the current state of the nodes for the index. With a target, their documents go to
+     * the target only; without, to the index and, through the cluster's mirror, the target.
+     */
+    private void send(ElasticSearchCluster cluster, ElasticSearchEventHandler handler, Collection<Long> nodeIds,
+                      String index, String target) throws Exception {
+        if (nodeIds.isEmpty()) return;
+        Collection<BulkableAction> actions = new ArrayList<>();
+        for (BulkableAction action : handler.replayRequests(nodeIds)) {
+            if (!index.equals(action.getIndex())) continue;
+            if (target == null) {
+                actions.add(action);
+            } else if (!"delete".equals(action.getBulkMethodName())) {
+                actions.add(ElasticSearchCluster.retarget(action, target));
+            }
+        }
+        if (target == null) actions = cluster.select(actions);
+        if (actions.isEmpty()) return;
+        if (!cluster.executeBulk(actions)) {
+            throw new IllegalStateException("ElasticSearch rejected bulk request");
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "elasticsearch-reindex";
+    }
+
+    @Override
+    public GraphDatabaseShellServer getServer()
+    {
+        return ( GraphDatabaseShellServer ) super.getServer();
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return "Rebuild indexes into new ones and swap their aliases when done";
+    }
+}
@@ -0,0 +1,142 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One queue per index, drained into bulk requests by weight. Every bulk is shared among the
+ * non-empty queues in proportion to their weights, after the entries that have been waiting
+ * longer than their index's maximum lag.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchScheduler {
+    static final int DEFAULT_WEIGHT = 1;
+
+    static class Entry {
+        final BulkableAction action;
+        final ElasticSearchCluster.Delivery delivery;
+        final long enqueued;
+
+        Entry(BulkableAction action, ElasticSearchCluster.Delivery delivery, long enqueued) {
+            this.action = action;
+            this.delivery = delivery;
+            this.enqueued = enqueued;
+        }
+    }
+
+    private static class IndexQueue {
+        final int weight;
+        final long maxLag;
+        final Deque<Entry> entries = new ArrayDeque<>();
+
+        IndexQueue(int weight, long maxLag) {
+            this.weight = weight;
+            this.maxLag = maxLag;
+        }
+
+        boolean isOverdue(long now) {
+            return maxLag > 0 && !entries.isEmpty() && now - entries.peekFirst().enqueued > maxLag;
+        }
+    }
+
+    private static final Comparator<IndexQueue> BY_WEIGHT = new Comparator<IndexQueue>() {
+        @Override
+        public int compare(IndexQueue a, IndexQueue b) {
+            return b.weight - a.weight;
+        }
+    };
+
+    private final Map<String, Integer> weights;
+    private final Map<String, Long> maxLags;
+    private final Map<String, IndexQueue> queues = new LinkedHashMap<>();
+    private int size = 0;
+
+    /**
+     * @param weights weight per index name, missing indexes get {@link #DEFAULT_WEIGHT}
+     * @param maxLags maximum time in ms an entry of an index should wait, missing indexes have none
+     */
+    ElasticSearchScheduler(Map<String, Integer> weights, Map<String, Long> maxLags) {
+        this.weights = weights;
+        this.maxLags = maxLags;
+    }
+
+    synchronized void offer(Collection<Entry> entries) {
+        for (Entry entry : entries) {
+            queue(entry.action.getIndex()).entries.addLast(entry);
+        }
+        size += entries.size();
+        notifyAll();
+    }
+
+    private IndexQueue queue(String index) {
+        IndexQueue queue = queues.get(index);
+        if (queue == null) {
+            Integer weight = weights.get(index);
+            Long maxLag = maxLags.get(index);
+            queue = new IndexQueue(weight == null ? DEFAULT_WEIGHT : Math.max(1, weight), maxLag == null ? 0 : maxLag);
+            queues.put(index, queue);
+        }
+        return queue;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Waits for entries and returns at most max of them.
+     */
+    synchronized List<Entry> take(int max) throws InterruptedException {
+        while (size == 0) {
+            wait();
+        }
+        return poll(max, System.currentTimeMillis());
+    }
+
+    synchronized List<Entry> poll(int max, long now) {
+        List<Entry> batch = new ArrayList<>(Math.min(max, size));
+
+        for (IndexQueue queue : queues.values()) {
+            while (batch.size() < max && queue.isOverdue(now)) {
+                batch.add(queue.entries.pollFirst());
+            }
+        }
+
+        int totalWeight = 0;
+        for (IndexQueue queue : queues.values()) {
+            if (!queue.entries.isEmpty()) totalWeight += queue.weight;
+        }
+        int capacity = max - batch.size();
+        for (IndexQueue queue : queues.values()) {
+            if (queue.entries.isEmpty()) continue;
+            int share = Math.max(1, (int) ((long) capacity * queue.weight / totalWeight));
+            drain(queue, batch, Math.min(max, batch.size() + share));
+        }
+
+        if (batch.size() < max) {
+            List<IndexQueue> byWeight = new ArrayList<>(queues.values());
+            Collections.sort(byWeight, BY_WEIGHT);
+            for (IndexQueue queue : byWeight) {
+                drain(queue, batch, max);
+            }
+        }
+        size -= batch.size();
+        return batch;
+    }
+
+    private void drain(IndexQueue queue, List<Entry> batch, int limit) {
+        while (batch.size() < limit && !queue.entries.isEmpty()) {
+            batch.add(queue.entries.pollFirst());
+        }
+    }
+}
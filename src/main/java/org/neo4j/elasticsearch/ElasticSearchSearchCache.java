@@ -0,0 +1,49 @@
+package org.neo4j.elasticsearch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short-lived cache of rendered search responses, bounded in size and evicting the least
+ * recently used entry.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchSearchCache {
+    private static class Entry {
+        final byte[] response;
+        final long expires;
+
+        Entry(byte[] response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+
+    ElasticSearchSearchCache(long ttlMillis, final int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    synchronized byte[] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.response;
+    }
+
+    synchronized void put(String key, byte[] response) {
+        entries.put(key, new Entry(response, System.currentTimeMillis() + ttlMillis));
+    }
+}
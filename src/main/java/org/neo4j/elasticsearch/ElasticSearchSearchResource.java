@@ -0,0 +1,193 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Search;
+import io.searchbox.params.Parameters;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unmanaged extension that runs a search against an index and returns the matching nodes,
+ * loaded from the graph in one transaction instead of one request per hit.
+ *
+ * Mount it with <code>org.neo4j.server.thirdparty_jaxrs_classes=org.neo4j.elasticsearch=/elasticsearch</code>.
+ *
+ * @since 19.10.26
+ */
+@Path("/search")
+public class ElasticSearchSearchResource {
+    private static final Gson GSON = new Gson();
+    private static final int BAD_GATEWAY = 502;
+
+    private final GraphDatabaseAPI db;
+
+    public ElasticSearchSearchResource(@Context GraphDatabaseService db) {
+        this.db = (GraphDatabaseAPI) db;
+    }
+
+    /**
+     * Searches with a query string, e.g. <code>GET /elasticsearch/search/people?q=last_name:smith&amp;properties=first_name</code>.
+     * With <code>routing</code>, only the shard of that routing value is searched.
+     */
+    @GET
+    @Path("/{index}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response search(@PathParam("index") String index, @QueryParam("q") String q,
+                           @QueryParam("size") @DefaultValue("10") int size,
+                           @QueryParam("properties") String properties,
+                           @QueryParam("routing") String routing) {
+        Map<String, Object> query = new LinkedHashMap<>();
+        query.put("query", Collections.singletonMap("query_string", Collections.singletonMap("query", q == null ? "*" : q)));
+        query.put("size", size);
+        return search(index, GSON.toJson(query), properties, routing);
+    }
+
+    /**
+     * Searches with a query in the ElasticSearch query DSL.
+     */
+    @POST
+    @Path("/{index}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response search(@PathParam("index") String index, String query, @QueryParam("properties") String properties,
+                           @QueryParam("routing") String routing) {
+        ElasticSearchExtension extension = db.getDependencyResolver().resolveDependency(ElasticSearchExtension.class);
+        JestClient client = extension.searchClient(index);
+        if (client == null) {
+            return Response.status(Response.Status.NOT_FOUND).entity("No cluster for index " + index).build();
+        }
+
+        ElasticSearchSearchCache cache = extension.getSearchCache();
+        String cacheKey = index + "\n" + properties + "\n" + routing + "\n" + query;
+        if (cache != null) {
+            byte[] cached = cache.get(cacheKey);
+            if (cached != null) return Response.ok(cached, MediaType.APPLICATION_JSON_TYPE).build();
+        }
+
+        JestResult result;
+        try {
+            Search.Builder search = new Search.Builder(query).addIndex(index);
+            if (routing != null) search.setParameter(Parameters.ROUTING, routing);
+            result = client.execute(search.build());
+        } catch (Exception e) {
+            return Response.status(BAD_GATEWAY).entity(e.getMessage()).build();
+        }
+        if (!result.isSucceeded()) {
+            return Response.status(BAD_GATEWAY).entity(result.getErrorMessage()).build();
+        }
+
+        final JsonObject hits = result.getJsonObject().getAsJsonObject("hits");
+        final List<String> selected = properties == null ? null : split(properties);
+        if (cache == null) {
+            return Response.ok(new StreamingOutput() {
+                @Override
+                public void write(OutputStream output) throws IOException, WebApplicationException {
+                    render(hits, selected, output);
+                }
+            }, MediaType.APPLICATION_JSON_TYPE).build();
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            render(hits, selected, output);
+        } catch (IOException e) {
+            throw new WebApplicationException(e);
+        }
+        cache.put(cacheKey, output.toByteArray());
+        return Response.ok(output.toByteArray(), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * Writes the hits in ElasticSearch order with the nodes they refer to. Hits whose node
+     * no longer exists are left out.
+     */
+    private void render(JsonObject hits, List<String> properties, OutputStream output) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(output, "UTF-8"));
+        writer.beginObject();
+        writer.name("total").value(hits.get("total").getAsLong());
+        writer.name("hits").beginArray();
+        try (Transaction tx = db.beginTx()) {
+            for (JsonElement element : hits.getAsJsonArray("hits")) {
+                JsonObject hit = element.getAsJsonObject();
+                Node node;
+                try {
+                    node = db.getNodeById(Long.parseLong(nodeId(hit)));
+                } catch (NotFoundException | NumberFormatException e) {
+                    continue;
+                }
+                writer.beginObject();
+                writer.name("id").value(node.getId());
+                writer.name("index").value(hit.get("_index").getAsString());
+                if (hit.has("_score") && !hit.get("_score").isJsonNull()) {
+                    writer.name("score").value(hit.get("_score").getAsDouble());
+                }
+                writer.name("labels").beginArray();
+                for (Label label : node.getLabels()) {
+                    writer.value(label.name());
+                }
+                writer.endArray();
+                writer.name("properties").beginObject();
+                for (String property : properties == null ? node.getPropertyKeys() : properties) {
+                    if (!node.hasProperty(property)) continue;
+                    Object value = node.getProperty(property);
+                    writer.name(property);
+                    GSON.toJson(value, value.getClass(), writer);
+                }
+                writer.endObject();
+                writer.endObject();
+            }
+            tx.success();
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    /** The handler writes the node id as document id and as id field. */
+    private static String nodeId(JsonObject hit) {
+        JsonObject source = hit.getAsJsonObject("_source");
+        if (source != null && source.has("id")) return source.get("id").getAsString();
+        return hit.get("_id").getAsString();
+    }
+
+    private static List<String> split(String values) {
+        List<String> result = new ArrayList<>();
+        for (String value : values.split(",")) {
+            if (!value.trim().isEmpty()) result.add(value.trim());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,223 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.action.GenericResultAbstractAction;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.config.HttpClientConfig;
+import io.searchbox.cluster.NodesInfo;
+import io.searchbox.params.Parameters;
+
+import org.neo4j.kernel.impl.util.StringLogger;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits bulk requests by the node holding the primary shard of each document, so they can be
+ * sent there directly instead of through a coordinating node. The shard is computed the way
+ * ElasticSearch 1.x does: the DJB hash of the routing value, or the id, modulo the number of
+ * primary shards. The routing table is refreshed periodically and after failed requests.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchShardRouter {
+    private static final long REFRESH_INTERVAL_MILLIS = 30000;
+
+    /** Primary shard locations of one index, also registered under its aliases. */
+    private static class IndexRouting {
+        final String[] primaries;
+
+        IndexRouting(int shards) {
+            this.primaries = new String[shards];
+        }
+    }
+
+    private final JestClient client;
+    private final Set<String> indexes;
+    private final StringLogger logger;
+    private final Map<String, JestClient> nodeClients = new HashMap<>();
+    private volatile Map<String, IndexRouting> routing = new HashMap<>();
+    private volatile Map<String, String> nodeAddresses = new HashMap<>();
+    private volatile long refreshed = 0;
+
+    /**
+     * @param client the client for the cluster state and for documents of unknown indexes
+     * @param indexes the indexes to route, null for all
+     */
+    ElasticSearchShardRouter(JestClient client, Set<String> indexes, StringLogger logger) {
+        this.client = client;
+        this.indexes = indexes;
+        this.logger = logger;
+    }
+
+    /** @return the actions grouped by the client of the node holding their primary shard */
+    Map<JestClient, List<BulkableAction>> split(Collection<BulkableAction> actions) {
+        if (System.currentTimeMillis() - refreshed > REFRESH_INTERVAL_MILLIS) refresh();
+        Map<String, IndexRouting> routing = this.routing;
+        Map<JestClient, List<BulkableAction>> split = new LinkedHashMap<>();
+        for (BulkableAction action : actions) {
+            JestClient target = client;
+            IndexRouting index = routing.get(action.getIndex());
+            if (index != null) {
+                String node = index.primaries[shard(routingValue(action), index.primaries.length)];
+                JestClient nodeClient = node == null ? null : nodeClient(node);
+                if (nodeClient != null) target = nodeClient;
+            }
+            List<BulkableAction> bulk = split.get(target);
+            if (bulk == null) {
+                bulk = new ArrayList<>();
+                split.put(target, bulk);
+            }
+            bulk.add(action);
+        }
+        return split;
+    }
+
+    /** Makes the next split fetch the routing table again, e.g. after nodes or shards moved. */
+    void invalidate() {
+        refreshed = 0;
+    }
+
+    static String routingValue(BulkableAction action) {
+        Collection<Object> routing = action.getParameter(Parameters.ROUTING);
+        return routing.isEmpty() ? action.getId() : String.valueOf(routing.iterator().next());
+    }
+
+    /** ElasticSearch 1.x DjbHashFunction and MathUtils.mod */
+    static int shard(String routing, int shards) {
+        long hash = 5381;
+        for (int i = 0; i < routing.length(); i++) {
+            hash = ((hash << 5) + hash) + routing.charAt(i);
+        }
+        int mod = (int) hash % shards;
+        return mod < 0 ? mod + shards : mod;
+    }
+
+    synchronized void refresh() {
+        if (System.currentTimeMillis() - refreshed <= REFRESH_INTERVAL_MILLIS) return;
+        refreshed = System.currentTimeMillis();
+        try {
+            Map<String, String> addresses = new HashMap<>();
+            JestResult nodes = client.execute(new NodesInfo.Builder().http(true).build());
+            if (!nodes.isSucceeded()) throw new IllegalStateException(nodes.getErrorMessage());
+            for (Map.Entry<String, JsonElement> e : nodes.getJsonObject().getAsJsonObject("nodes").entrySet()) {
+                JsonElement http = e.getValue().getAsJsonObject().get("http_address");
+                if (http != null) addresses.put(e.getKey(), httpUrl(http.getAsString()));
+            }
+
+            JestResult result = client.execute(new RoutingState(indexes == null ? null : join(indexes)));
+            if (!result.isSucceeded()) throw new IllegalStateException(result.getErrorMessage());
+
+            Map<String, IndexRouting> routing = new HashMap<>();
+            JsonObject indices = result.getJsonObject().getAsJsonObject("routing_table").getAsJsonObject("indices");
+            for (Map.Entry<String, JsonElement> index : indices.entrySet()) {
+                JsonObject shards = index.getValue().getAsJsonObject().getAsJsonObject("shards");
+                IndexRouting indexRouting = new IndexRouting(shards.entrySet().size());
+                for (Map.Entry<String, JsonElement> shard : shards.entrySet()) {
+                    for (JsonElement copy : shard.getValue().getAsJsonArray()) {
+                        JsonObject c = copy.getAsJsonObject();
+                        if (c.get("primary").getAsBoolean() && "STARTED".equals(c.get("state").getAsString())) {
+                            indexRouting.primaries[Integer.parseInt(shard.getKey())] = c.get("node").getAsString();
+                        }
+                    }
+                }
+                routing.put(index.getKey(), indexRouting);
+            }
+            // documents are usually written through an alias, which routes like its single index
+            JsonObject metadata = result.getJsonObject().getAsJsonObject("metadata").getAsJsonObject("indices");
+            for (Map.Entry<String, JsonElement> index : metadata.entrySet()) {
+                JsonElement aliases = index.getValue().getAsJsonObject().get("aliases");
+                if (aliases == null || !routing.containsKey(index.getKey())) continue;
+                for (JsonElement alias : aliases.getAsJsonArray()) {
+                    if (!routing.containsKey(alias.getAsString())) routing.put(alias.getAsString(), routing.get(index.getKey()));
+                }
+            }
+            this.nodeAddresses = addresses;
+            this.routing = routing;
+            // nodes that left the cluster
+            for (Iterator<Map.Entry<String, JestClient>> it = nodeClients.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, JestClient> e = it.next();
+                if (!addresses.containsValue(e.getKey())) {
+                    e.getValue().shutdownClient();
+                    it.remove();
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("ElasticSearch: can't read the shard routing table, sending through the configured host", e);
+            this.routing = new HashMap<>();
+        }
+    }
+
+    private synchronized JestClient nodeClient(String node) {
+        String address = nodeAddresses.get(node);
+        if (address == null) return null;
+        JestClient nodeClient = nodeClients.get(address);
+        if (nodeClient == null) {
+            JestClientFactory factory = new JestClientFactory();
+            factory.setHttpClientConfig(new HttpClientConfig.Builder(address).multiThreaded(true).build());
+            nodeClient = factory.getObject();
+            nodeClients.put(address, nodeClient);
+        }
+        return nodeClient;
+    }
+
+    /** ElasticSearch 1.x reports addresses like inet[/10.0.0.1:9200] or inet[host/10.0.0.1:9200] */
+    static String httpUrl(String address) {
+        String hostPort = address;
+        int slash = hostPort.lastIndexOf('/');
+        if (slash >= 0) hostPort = hostPort.substring(slash + 1);
+        if (hostPort.endsWith("]")) hostPort = hostPort.substring(0, hostPort.length() - 1);
+        return "http://" + hostPort;
+    }
+
+    private static String join(Set<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The routing table and metadata of the cluster state. ElasticSearch 1.x takes the filters
+     * as metrics and indices in the path, it ignores the filter parameters of {@link io.searchbox.cluster.State}.
+     */
+    static class RoutingState extends GenericResultAbstractAction {
+        private final String indices;
+
+        /** @param indices comma separated, null for all */
+        RoutingState(String indices) {
+            this.indices = indices;
+            setURI(buildURI());
+        }
+
+        @Override
+        protected String buildURI() {
+            return "/_cluster/state/routing_table,metadata" + (indices == null ? "" : "/" + indices);
+        }
+
+        @Override
+        public String getRestMethodName() {
+            return "GET";
+        }
+    }
+
+    synchronized void shutdown() {
+        for (JestClient nodeClient : nodeClients.values()) {
+            nodeClient.shutdownClient();
+        }
+        nodeClients.clear();
+    }
+}
@@ -0,0 +1,147 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the transactions whose changes are on their way to ElasticSearch.
+ *
+ * Neo4j doesn't tell a transaction event handler the id of the transaction it is
+ * handling, so every pending transaction is registered with the last committed
+ * transaction id seen before it committed. All transactions up to the smallest of
+ * those ids have been delivered. Failed transactions are kept as a single ticket
+ * pinned at the smallest id of them, until a catch-up run replayed them.
+ *
+ * @since 19.10.26
+ */
+class ElasticSearchTransactionTracker {
+
+    static class Ticket {
+        volatile long baseline;
+        final long started;
+
+        Ticket(long baseline) {
+            this(baseline, System.currentTimeMillis());
+        }
+
+        private Ticket(long baseline, long started) {
+            this.baseline = baseline;
+            this.started = started;
+        }
+    }
+
+    private static final long POLL_MILLIS = 100;
+
+    private final TransactionIdStore txIdStore;
+    private final Set<Ticket> pending = Collections.newSetFromMap(new ConcurrentHashMap<Ticket, Boolean>());
+    private volatile Ticket failure;
+
+    ElasticSearchTransactionTracker(TransactionIdStore txIdStore) {
+        this.txIdStore = txIdStore;
+    }
+
+    static ElasticSearchTransactionTracker of(GraphDatabaseService gds) {
+        return new ElasticSearchTransactionTracker(((GraphDatabaseAPI) gds).getDependencyResolver()
+                .resolveDependency(TransactionIdStore.class));
+    }
+
+    /** Registers a transaction that is about to commit. */
+    Ticket begin() {
+        return pin(lastCommitted());
+    }
+
+    /** Holds back the delivered transaction id at txId until the ticket is done. */
+    Ticket pin(long txId) {
+        Ticket ticket = new Ticket(txId);
+        pending.add(ticket);
+        return ticket;
+    }
+
+    void advance(Ticket ticket, long txId) {
+        ticket.baseline = txId;
+    }
+
+    /** Releases the ticket, or the failures if it is the one returned by {@link #failure()} and none failed since. */
+    void done(Ticket ticket) {
+        pending.remove(ticket);
+        synchronized (this) {
+            if (failure == ticket) failure = null;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Keeps the transactions from the baseline of the ticket on pinned until a catch-up run has
+     * replayed them. While a cluster is down every bulk fails, so instead of piling up the failed
+     * tickets are merged into one.
+     */
+    synchronized void failed(Ticket ticket) {
+        Ticket merged = failure == null ? new Ticket(ticket.baseline, ticket.started)
+                : new Ticket(Math.min(failure.baseline, ticket.baseline), Math.min(failure.started, ticket.started));
+        // pinned by the merged ticket before it is released, delivered() never passes it
+        failure = merged;
+        pending.remove(ticket);
+    }
+
+    boolean hasFailures() {
+        return failure != null;
+    }
+
+    /** @return the ticket of all failed transactions, null if none failed */
+    Ticket failure() {
+        return failure;
+    }
+
+    long lastCommitted() {
+        return txIdStore.getLastCommittedTransactionId();
+    }
+
+    /** @return the id up to which all committed transactions have been acknowledged by ElasticSearch */
+    long delivered() {
+        long delivered = lastCommitted();
+        for (Ticket ticket : pending) {
+            delivered = Math.min(delivered, ticket.baseline);
+        }
+        // read after the pending ones, a ticket that failed meanwhile is found in one of them
+        Ticket failed = failure;
+        return failed == null ? delivered : Math.min(delivered, failed.baseline);
+    }
+
+    /** @return the number of committed transactions not yet acknowledged by ElasticSearch */
+    long lagTransactions() {
+        return Math.max(0, lastCommitted() - delivered());
+    }
+
+    /** @return how long the oldest pending transaction has been waiting for ElasticSearch in ms, 0 if none is */
+    long lagMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Ticket ticket : pending) {
+            oldest = Math.min(oldest, ticket.started);
+        }
+        Ticket failed = failure;
+        if (failed != null) oldest = Math.min(oldest, failed.started);
+        return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    /**
+     * Waits until the changes of transaction txId and all before it have been acknowledged by ElasticSearch.
+     * @return false if that didn't happen within the timeout
+     */
+    boolean awaitDelivered(long txId, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            while (delivered() < txId) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                // commits without indexed changes don't notify, so look again now and then
+                wait(Math.min(remaining, POLL_MILLIS));
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,140 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchBackfillTest {
+
+    private static final Label LABEL = DynamicLabel.label("Person");
+    private static final Label PLACE = DynamicLabel.label("Place");
+
+    private GraphDatabaseAPI db;
+    private ElasticSearchStubClient client;
+    private ElasticSearchIndexSpec people, places;
+    private Map<Label, List<ElasticSearchIndexSpec>> indexSpecs;
+
+    @Before
+    public void setUp() throws Exception {
+        db = (GraphDatabaseAPI) new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try (Transaction tx = db.beginTx()) {
+            Node person = db.createNode(LABEL);          // 0
+            person.setProperty("name", "Anna");
+            person.setProperty("tenant", "acme");
+            Node both = db.createNode(LABEL, PLACE);     // 1
+            both.setProperty("name", "Ben's Bar");
+            Node place = db.createNode(PLACE);           // 2
+            place.setProperty("name", "Berlin");
+            tx.success();
+        }
+        client = new ElasticSearchStubClient();
+        people = new ElasticSearchIndexSpec("people", new HashSet<>(Arrays.asList("name")));
+        places = new ElasticSearchIndexSpec("places", new HashSet<>(Arrays.asList("name")));
+        indexSpecs = new LinkedHashMap<>();
+        indexSpecs.put(LABEL, Collections.singletonList(people));
+        indexSpecs.put(PLACE, Collections.singletonList(places));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    private void backfill() {
+        ElasticSearchCluster cluster = new ElasticSearchCluster("test", client, null, ElasticSearchTransactionTracker.of(db),
+                StringLogger.DEV_NULL, new ElasticSearchScheduler(Collections.<String, Integer>emptyMap(), Collections.<String, Long>emptyMap()),
+                10, 10, 0);
+        ElasticSearchEventHandler handler = new ElasticSearchEventHandler(Collections.singletonList(cluster), indexSpecs, StringLogger.DEV_NULL, db);
+        ElasticSearchBackfill backfill = new ElasticSearchBackfill(cluster, handler, indexSpecs, db, StringLogger.DEV_NULL, 10);
+        for (int i = 0; i < 10 && !backfill.isDone(); i++) {
+            backfill.tick();
+        }
+        assertTrue(backfill.isDone());
+    }
+
+    // the order within a bulk is not defined
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    @Test
+    public void testBackfillsNewSpecAndSkipsCompleteOne() throws Exception {
+        client.store("people:Person", people.fingerprint(LABEL), ElasticSearchBackfill.COMPLETE);
+        backfill();
+        // node 1 is a Person, too, but only the documents of the new spec are sent
+        assertEquals(set("index places/Place/1", "index places/Place/2"), new HashSet<>(client.sent));
+        assertEquals(places.fingerprint(PLACE), client.state("places:Place").get("fingerprint"));
+        assertEquals(-1, ((Number) client.state("places:Place").get("next_node")).longValue());
+    }
+
+    @Test
+    public void testRestartsChangedSpecAndResumesUnfinishedOne() throws Exception {
+        client.store("people:Person", "outdated", ElasticSearchBackfill.COMPLETE);
+        client.store("places:Place", places.fingerprint(PLACE), 2);
+        backfill();
+        assertEquals(set("index people/Person/0", "index people/Person/1"), new HashSet<>(client.sent.subList(0, 2)));
+        assertEquals(Arrays.asList("index places/Place/2"), client.sent.subList(2, client.sent.size()));
+        assertEquals(people.fingerprint(LABEL), client.state("people:Person").get("fingerprint"));
+        assertEquals(-1, ((Number) client.state("places:Place").get("next_node")).longValue());
+    }
+
+    @Test
+    public void testDeletesDocumentsUnderPreviousRouting() throws Exception {
+        client.store("people:Person", people.fingerprint(LABEL), ElasticSearchBackfill.COMPLETE);
+        client.store("places:Place", places.fingerprint(PLACE), ElasticSearchBackfill.COMPLETE);
+        people.setRouting("tenant");
+        backfill();
+        assertEquals(3, client.sent.size());
+        assertTrue(client.sent.get(0), client.sent.get(0).startsWith("delete_by_query people/Person/"));
+        assertEquals(set("index people/Person/0@acme", "index people/Person/1"), new HashSet<>(client.sent.subList(1, 3)));
+        assertEquals("tenant", client.state("people:Person").get("routing"));
+    }
+
+    @Test
+    public void testSpecFingerprint() throws Exception {
+        ElasticSearchIndexSpec spec = new ElasticSearchIndexSpec("people", new HashSet<>(Arrays.asList("name", "age")));
+        ElasticSearchIndexSpec reordered = new ElasticSearchIndexSpec("people", new LinkedHashSet<>(Arrays.asList("age", "name")));
+        assertEquals(spec.fingerprint(LABEL), reordered.fingerprint(LABEL));
+
+        ElasticSearchIndexSpec added = new ElasticSearchIndexSpec("people", new HashSet<>(Arrays.asList("name", "age", "email")));
+        assertNotEquals(spec.fingerprint(LABEL), added.fingerprint(LABEL));
+        assertNotEquals(spec.fingerprint(LABEL), spec.fingerprint(DynamicLabel.label("User")));
+
+        reordered.setPredicates(ElasticSearchPredicate.parse("age>=18"));
+        assertNotEquals(spec.fingerprint(LABEL), reordered.fingerprint(LABEL));
+    }
+
+    @Test
+    public void testHighNodeId() throws Exception {
+        GraphDatabaseAPI db = (GraphDatabaseAPI) new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try {
+            try (Transaction tx = db.beginTx()) {
+                for (int i = 0; i < 10; i++) db.createNode();
+                tx.success();
+            }
+            assertTrue(ElasticSearchBackfill.highNodeId(db) >= 10);
+        } finally {
+            db.shutdown();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.core.LabelTokenHolder;
+import org.neo4j.kernel.impl.transaction.log.LogicalTransactionStore;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class ElasticSearchCatchUpTest {
+
+    private ElasticSearchHaRoleTest.HaDatabase db;
+    private ElasticSearchStubClient client;
+    private ElasticSearchEventHandler handler;
+    private ElasticSearchCatchUp catchUp;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new ElasticSearchHaRoleTest.HaDatabase();
+        db.master = true;
+        client = new ElasticSearchStubClient();
+        ElasticSearchCluster cluster = new ElasticSearchCluster("test", client, null, ElasticSearchTransactionTracker.of(db),
+                StringLogger.DEV_NULL, new ElasticSearchScheduler(Collections.<String, Integer>emptyMap(), Collections.<String, Long>emptyMap()),
+                10, 10, 0);
+        handler = new ElasticSearchEventHandler(Collections.singletonList(cluster),
+                ElasticSearchIndexSpecParser.parseIndexSpec("orders:Order(total)@tenant,people:Person(name),staff:Employee(name)"), StringLogger.DEV_NULL, db);
+        handler.setShipping(false);
+        handler.setFingerprintCache(new ElasticSearchFingerprintCache(1024));
+        db.registerTransactionEventHandler(handler);
+        catchUp = new ElasticSearchCatchUp(cluster, handler, new ElasticSearchCheckpoint(client, "checkpoint"),
+                db.getDependencyResolver().resolveDependency(LogicalTransactionStore.class),
+                db.getDependencyResolver().resolveDependency(LabelTokenHolder.class), StringLogger.DEV_NULL, 1000);
+        catchUp.follow(ElasticSearchHaRole.of(db));
+        catchUp.tick();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.unregisterTransactionEventHandler(handler);
+        handler.shutdown();
+        db.shutdown();
+    }
+
+    private long create(String tenant) {
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.createNode(DynamicLabel.label("Order"));
+            node.setProperty("total", 10);
+            node.setProperty("tenant", tenant);
+            tx.success();
+            return node.getId();
+        }
+    }
+
+    @Test
+    public void testShippingDeletesRoutedCopiesFirst() throws Exception {
+        long id = create("acme");
+        catchUp.tick();
+        client.sent.clear();
+        try (Transaction tx = db.beginTx()) {
+            db.getNodeById(id).setProperty("tenant", "globex");
+            tx.success();
+        }
+        catchUp.tick();
+        // the copy under acme lives on another shard than the new one, only a delete by id from all shards reaches it
+        assertEquals(asList("delete_by_query orders/Order/_query", "index orders/Order/" + id + "@globex"), client.sent);
+    }
+
+    @Test
+    public void testShippingDeletesOnlyLostLabels() throws Exception {
+        long order = create("acme");
+        long person;
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.createNode(DynamicLabel.label("Person"), DynamicLabel.label("Employee"));
+            node.setProperty("name", "Ann");
+            person = node.getId();
+            tx.success();
+        }
+        catchUp.tick();
+        assertEquals(asList("delete_by_query orders/Order/_query", "index orders/Order/" + order + "@acme",
+                "index people/Person/" + person, "index staff/Employee/" + person), sorted(client.sent));
+
+        client.sent.clear();
+        try (Transaction tx = db.beginTx()) {
+            db.getNodeById(person).removeLabel(DynamicLabel.label("Employee"));
+            tx.success();
+        }
+        catchUp.tick();
+        // the order node wasn't touched, so it has nothing to delete
+        assertEquals(asList("delete_by_query orders/Order/_query", "delete staff/Employee/" + person,
+                "index people/Person/" + person), client.sent);
+
+        client.sent.clear();
+        try (Transaction tx = db.beginTx()) {
+            db.getNodeById(person).setProperty("age", 42);
+            tx.success();
+        }
+        catchUp.tick();
+        // the document of the person doesn't contain the property, it was sent already
+        assertEquals(asList("delete_by_query orders/Order/_query"), client.sent);
+
+        client.sent.clear();
+        try (Transaction tx = db.beginTx()) {
+            db.getNodeById(person).delete();
+            tx.success();
+        }
+        catchUp.tick();
+        assertEquals(asList("delete_by_query orders/Order/_query", "delete people/Person/" + person), client.sent);
+    }
+
+    private static List<String> sorted(List<String> sent) {
+        List<String> result = new ArrayList<>(sent);
+        Collections.sort(result);
+        return result;
+    }
+}
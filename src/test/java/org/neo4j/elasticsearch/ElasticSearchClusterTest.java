@@ -0,0 +1,45 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ElasticSearchClusterTest {
+
+    @Test
+    public void testMirroredIndexGetsCopies() throws Exception {
+        ElasticSearchCluster cluster = new ElasticSearchCluster("test", null, new HashSet<>(Arrays.asList("people")), null,
+                StringLogger.DEV_NULL, new ElasticSearchScheduler(Collections.<String, Integer>emptyMap(), Collections.<String, Long>emptyMap()),
+                10, 10, 0);
+        List<BulkableAction> actions = new ArrayList<>();
+        actions.add(new Index.Builder("{\"id\":\"1\"}").index("people").type("Person").id("1").build());
+        actions.add(new Delete.Builder("2").index("people").type("Person").build());
+        actions.add(new Index.Builder("{\"id\":\"3\"}").index("places").type("Place").id("3").build());
+        assertEquals(2, cluster.select(actions).size());
+
+        cluster.mirror("people", "people_2");
+        List<BulkableAction> selected = new ArrayList<>(cluster.select(actions));
+        assertEquals(4, selected.size());
+        BulkableAction copy = selected.get(1);
+        assertEquals("people_2", copy.getIndex());
+        assertEquals("Person", copy.getType());
+        assertEquals("1", copy.getId());
+        assertEquals("{\"id\":\"1\"}", copy.getData(null));
+        assertEquals("delete", selected.get(3).getBulkMethodName());
+        assertEquals("people_2", selected.get(3).getIndex());
+
+        cluster.unmirror("people");
+        assertEquals(2, cluster.select(actions).size());
+    }
+}
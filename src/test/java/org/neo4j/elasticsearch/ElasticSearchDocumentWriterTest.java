@@ -0,0 +1,82 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchDocumentWriterTest {
+
+    private final ElasticSearchDocumentWriter writer = new ElasticSearchDocumentWriter();
+
+    @Test
+    public void testWritesValuesWithoutLimits() throws Exception {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("name", "foo \"bar\"");
+        values.put("age", 42);
+        values.put("tags", new String[] {"a", "b"});
+        values.put("scores", new long[] {1, 2});
+        values.put("missing", null);
+
+        String json = writer.write("1", new String[] {"Person"}, values, ElasticSearchDocumentLimits.NONE);
+        assertEquals("{\"id\":\"1\",\"labels\":[\"Person\"],\"name\":\"foo \\\"bar\\\"\",\"age\":42,"
+                + "\"tags\":[\"a\",\"b\"],\"scores\":[1,2]}", json);
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        JsonObject doc = write(new ElasticSearchDocumentLimits(9, 2, 0, ElasticSearchDocumentLimits.Policy.TRUNCATE));
+        assertEquals("abcdefg", doc.get("text").getAsString());
+        assertEquals(2, doc.getAsJsonArray("tags").size());
+        assertEquals(2L, (long) writer.getMetrics().get("values_truncated"));
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        JsonObject doc = write(new ElasticSearchDocumentLimits(9, 2, 0, ElasticSearchDocumentLimits.Policy.SKIP));
+        assertFalse(doc.has("text"));
+        assertFalse(doc.has("tags"));
+        assertEquals(1, doc.get("short").getAsInt());
+        assertEquals(2L, (long) writer.getMetrics().get("values_skipped"));
+    }
+
+    @Test
+    public void testHash() throws Exception {
+        JsonObject doc = write(new ElasticSearchDocumentLimits(9, 2, 0, ElasticSearchDocumentLimits.Policy.HASH));
+        assertTrue(doc.get("text").getAsString().startsWith("sha1:"));
+        assertTrue(doc.get("tags").getAsString().startsWith("sha1:"));
+        assertEquals(2L, (long) writer.getMetrics().get("values_hashed"));
+    }
+
+    @Test
+    public void testDocumentLimit() throws Exception {
+        JsonObject doc = write(new ElasticSearchDocumentLimits(0, 0, 30, ElasticSearchDocumentLimits.Policy.TRUNCATE));
+        assertTrue(doc.has("text"));
+        assertFalse(doc.has("tags"));
+        assertEquals(1L, (long) writer.getMetrics().get("documents_truncated"));
+
+        assertNull(writer.write("1", new String[0], values(),
+                new ElasticSearchDocumentLimits(0, 0, 30, ElasticSearchDocumentLimits.Policy.SKIP)));
+        assertEquals(1L, (long) writer.getMetrics().get("documents_skipped"));
+    }
+
+    private JsonObject write(ElasticSearchDocumentLimits limits) {
+        return new JsonParser().parse(writer.write("1", new String[0], values(), limits)).getAsJsonObject();
+    }
+
+    private Map<String, Object> values() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("text", "abcdefghij");
+        values.put("tags", new String[] {"a", "b", "c"});
+        values.put("short", 1);
+        return values;
+    }
+}
@@ -0,0 +1,95 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchEventHandlerRoutingTest {
+
+    private GraphDatabaseService db;
+    private ElasticSearchStubClient client;
+    private ElasticSearchEventHandler handler;
+    private ElasticSearchCluster cluster;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        client = new ElasticSearchStubClient();
+        cluster = new ElasticSearchCluster("test", client, null, ElasticSearchTransactionTracker.of(db),
+                StringLogger.DEV_NULL, new ElasticSearchScheduler(Collections.<String, Integer>emptyMap(), Collections.<String, Long>emptyMap()),
+                10, 10, 0);
+        handler = new ElasticSearchEventHandler(Collections.singletonList(cluster),
+                ElasticSearchIndexSpecParser.parseIndexSpec("orders:Order(total)@tenant"), StringLogger.DEV_NULL, db);
+        handler.setUseAsyncJest(false);
+        db.registerTransactionEventHandler(handler);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.unregisterTransactionEventHandler(handler);
+        handler.shutdown();
+        db.shutdown();
+    }
+
+    private long create(String tenant) {
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.createNode(DynamicLabel.label("Order"));
+            node.setProperty("total", 10);
+            node.setProperty("tenant", tenant);
+            tx.success();
+            return node.getId();
+        }
+    }
+
+    private void reroute(long id, String tenant) {
+        try (Transaction tx = db.beginTx()) {
+            db.getNodeById(id).setProperty("tenant", tenant);
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testDeleteUnderOldRoutingGoesFirst() throws Exception {
+        // a delete by id after the new document would remove it from the shared shard
+        assertEquals(ElasticSearchShardRouter.shard("acme", 5), ElasticSearchShardRouter.shard("hooli", 5));
+        long id = create("acme");
+        client.sent.clear();
+        reroute(id, "hooli");
+        assertEquals(asList("delete orders/Order/" + id + "@acme", "index orders/Order/" + id + "@hooli"), client.sent);
+    }
+
+    @Test
+    public void testDeleteUnderOldRoutingGoesFirstWhenDeferred() throws Exception {
+        handler.setParallelThreshold(1);
+        long id = create("acme");
+        client.sent.clear();
+        reroute(id, "hooli");
+        assertEquals(asList("delete orders/Order/" + id + "@acme", "index orders/Order/" + id + "@hooli"), client.sent);
+    }
+
+    @Test
+    public void testFailedDeferredRenderingFailsTheTickets() throws Exception {
+        handler.setParallelThreshold(1);
+        create("acme");
+        client.sent.clear();
+        // a pool that was shut down rejects the rendering
+        handler.shutdown();
+        long delivered = cluster.getTracker().delivered();
+        create("acme");
+        assertTrue(client.sent.isEmpty());
+        assertTrue(cluster.getTracker().hasFailures());
+        assertEquals(delivered, cluster.getTracker().delivered());
+    }
+}
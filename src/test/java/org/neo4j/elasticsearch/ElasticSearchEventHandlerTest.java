@@ -5,6 +5,7 @@ import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.JestResult;
 import io.searchbox.client.config.HttpClientConfig;
 import io.searchbox.core.Get;
+import io.searchbox.params.Parameters;
 import io.searchbox.indices.CreateIndex;
 import io.searchbox.indices.DeleteIndex;
 
@@ -109,6 +110,79 @@ public class ElasticSearchEventHandlerTest {
         assertEquals(false, response.getValue("found"));
     }
 
+    @Test
+    public void testPredicates() throws Exception {
+        db.unregisterTransactionEventHandler(handler);
+        handler = new ElasticSearchEventHandler(client, ElasticSearchIndexSpecParser.parseIndexSpec(INDEX + ":" + LABEL + "(foo,bar)[!archived]"), logger, db);
+        handler.setUseAsyncJest(false);
+        db.registerTransactionEventHandler(handler);
+
+        Transaction tx = db.beginTx();
+        org.neo4j.graphdb.Node node = db.createNode(DynamicLabel.label(LABEL));
+        String id = String.valueOf(node.getId());
+        node.setProperty("foo","bar");
+        org.neo4j.graphdb.Node archived = db.createNode(DynamicLabel.label(LABEL));
+        archived.setProperty("foo","bar");
+        archived.setProperty("archived", true);
+        tx.success();tx.close();
+
+        assertEquals(true, client.execute(new Get.Builder(INDEX, id).type(LABEL).build()).getValue("found"));
+        assertEquals(false, client.execute(new Get.Builder(INDEX, String.valueOf(archived.getId())).type(LABEL).build()).getValue("found"));
+
+        tx = db.beginTx();
+        node.setProperty("archived", true);
+        tx.success();tx.close();
+
+        assertEquals(false, client.execute(new Get.Builder(INDEX, id).type(LABEL).build()).getValue("found"));
+    }
+
+    @Test
+    public void testRoutingChange() throws Exception {
+        db.unregisterTransactionEventHandler(handler);
+        handler = new ElasticSearchEventHandler(client, ElasticSearchIndexSpecParser.parseIndexSpec(INDEX + ":" + LABEL + "(foo)@tenant"), logger, db);
+        handler.setUseAsyncJest(false);
+        db.registerTransactionEventHandler(handler);
+
+        Transaction tx = db.beginTx();
+        org.neo4j.graphdb.Node node = db.createNode(DynamicLabel.label(LABEL));
+        String id = String.valueOf(node.getId());
+        node.setProperty("foo","bar");
+        node.setProperty("tenant","acme");
+        tx.success();tx.close();
+
+        assertEquals(true, client.execute(new Get.Builder(INDEX, id).type(LABEL).setParameter(Parameters.ROUTING, "acme").build()).getValue("found"));
+
+        tx = db.beginTx();
+        node.setProperty("tenant","globex");
+        tx.success();tx.close();
+
+        assertEquals(false, client.execute(new Get.Builder(INDEX, id).type(LABEL).setParameter(Parameters.ROUTING, "acme").build()).getValue("found"));
+        assertEquals(true, client.execute(new Get.Builder(INDEX, id).type(LABEL).setParameter(Parameters.ROUTING, "globex").build()).getValue("found"));
+    }
+
+    @Test
+    public void testRoutingChangeOnSameShard() throws Exception {
+        db.unregisterTransactionEventHandler(handler);
+        handler = new ElasticSearchEventHandler(client, ElasticSearchIndexSpecParser.parseIndexSpec(INDEX + ":" + LABEL + "(foo)@tenant"), logger, db);
+        handler.setUseAsyncJest(false);
+        db.registerTransactionEventHandler(handler);
+        // both on shard 3 of 5, the delete of the old copy must not remove the new one
+        assertEquals(ElasticSearchShardRouter.shard("acme", 5), ElasticSearchShardRouter.shard("hooli", 5));
+
+        Transaction tx = db.beginTx();
+        org.neo4j.graphdb.Node node = db.createNode(DynamicLabel.label(LABEL));
+        String id = String.valueOf(node.getId());
+        node.setProperty("foo","bar");
+        node.setProperty("tenant","acme");
+        tx.success();tx.close();
+
+        tx = db.beginTx();
+        node.setProperty("tenant","hooli");
+        tx.success();tx.close();
+
+        assertEquals(true, client.execute(new Get.Builder(INDEX, id).type(LABEL).setParameter(Parameters.ROUTING, "hooli").build()).getValue("found"));
+    }
+
     @Test
     public void testUpdate() throws Exception {
 
@@ -211,5 +285,22 @@ public class ElasticSearchEventHandlerTest {
         assertEquals(true, response.getValue("found"));
     }
 
+    @Test
+    public void testParallelIndexing() throws Exception {
+        handler.setParallelThreshold(10);
+        String[] ids = new String[50];
+        Transaction tx = db.beginTx();
+        for (int i = 0; i < ids.length; i++) {
+            org.neo4j.graphdb.Node node = db.createNode(DynamicLabel.label(LABEL));
+            node.setProperty("foo", "bar" + i);
+            ids[i] = String.valueOf(node.getId());
+        }
+        tx.success();tx.close();
 
+        for (int i = 0; i < ids.length; i++) {
+            JestResult response = client.execute(new Get.Builder(INDEX, ids[i]).build());
+            assertEquals(true, response.isSucceeded());
+            assertEquals("bar" + i, response.getSourceAsObject(Map.class).get("foo"));
+        }
+    }
 }
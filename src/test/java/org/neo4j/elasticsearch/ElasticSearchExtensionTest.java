@@ -0,0 +1,105 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchExtensionTest {
+
+    private GraphDatabaseService db;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testClustersFromConfig() throws Throwable {
+        StringBuffer log = new StringBuffer();
+        Config config = new Config(MapUtil.stringMap(
+                "elasticsearch.index_spec", "people:Person(name),audit:Event(name)",
+                "elasticsearch.host_name", "http://localhost:9200",
+                "elasticsearch.index_weights", "people:heavy,audit:1",
+                "elasticsearch.clusters", "main, archive",
+                "elasticsearch.cluster.main.queue_size", "lots",
+                "elasticsearch.cluster.archive.host_name", "http://localhost:9201",
+                "elasticsearch.cluster.archive.indexes", "audit",
+                "elasticsearch.cluster.archive.concurrency", "1"), ElasticSearchKernelExtensionFactory.ElasticSearchSettings.class);
+        ElasticSearchExtension extension = new ElasticSearchExtension(db, StringLogger.wrap(log), config);
+        extension.init();
+        try {
+            assertTrue(log.toString(), extension.isEnabled());
+            List<ElasticSearchCluster> clusters = extension.getHandler().getClusters();
+            assertEquals(2, clusters.size());
+            assertEquals("main", clusters.get(0).getName());
+            assertEquals("archive", clusters.get(1).getName());
+            assertTrue(clusters.get(0).accepts("people"));
+            assertTrue(clusters.get(0).accepts("audit"));
+            assertFalse(clusters.get(1).accepts("people"));
+            assertTrue(clusters.get(1).accepts("audit"));
+            assertEquals(clusters, extension.getClusters("audit"));
+            assertEquals(clusters.subList(0, 1), extension.getClusters("people"));
+
+            // malformed numbers are named in the log, the cluster falls back to the defaults
+            assertTrue(log.toString(), log.toString().contains("elasticsearch.cluster.main.queue_size isn't a number: lots"));
+            assertTrue(log.toString(), log.toString().contains("elasticsearch.index_weights has no number for people: heavy"));
+        } finally {
+            extension.shutdown();
+        }
+    }
+
+    @Test
+    public void testChangesFanOutToTheClustersOfTheirIndex() throws Exception {
+        ElasticSearchStubClient all = new ElasticSearchStubClient(), people = new ElasticSearchStubClient(),
+                orders = new ElasticSearchStubClient();
+        ElasticSearchEventHandler handler = new ElasticSearchEventHandler(Arrays.asList(
+                cluster("all", all, null), cluster("people", people, "people"), cluster("orders", orders, "orders")),
+                ElasticSearchIndexSpecParser.parseIndexSpec("people:Person(name),orders:Order(total)"), StringLogger.DEV_NULL, db);
+        handler.setUseAsyncJest(false);
+        db.registerTransactionEventHandler(handler);
+        try {
+            long id;
+            try (Transaction tx = db.beginTx()) {
+                Node node = db.createNode(DynamicLabel.label("Person"));
+                node.setProperty("name", "Ann");
+                id = node.getId();
+                tx.success();
+            }
+            assertEquals(asList("index people/Person/" + id), all.sent);
+            assertEquals(asList("index people/Person/" + id), people.sent);
+            assertTrue(orders.sent.isEmpty());
+        } finally {
+            db.unregisterTransactionEventHandler(handler);
+            handler.shutdown();
+        }
+    }
+
+    private ElasticSearchCluster cluster(String name, ElasticSearchStubClient client, String index) {
+        return new ElasticSearchCluster(name, client, index == null ? null : new HashSet<>(Collections.singleton(index)),
+                ElasticSearchTransactionTracker.of(db), StringLogger.DEV_NULL,
+                new ElasticSearchScheduler(Collections.<String, Integer>emptyMap(), Collections.<String, Long>emptyMap()), 10, 10, 0);
+    }
+}
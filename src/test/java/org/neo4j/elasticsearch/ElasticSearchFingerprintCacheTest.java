@@ -0,0 +1,39 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchFingerprintCacheTest {
+
+    @Test
+    public void testUnchangedDocumentIsSkipped() {
+        ElasticSearchFingerprintCache cache = new ElasticSearchFingerprintCache(1024);
+        long key = ElasticSearchFingerprintCache.key("people:Person", 42);
+
+        assertTrue(cache.update(key, ElasticSearchFingerprintCache.fingerprint("{\"name\":\"foo\"}")));
+        assertFalse(cache.update(key, ElasticSearchFingerprintCache.fingerprint("{\"name\":\"foo\"}")));
+        assertTrue(cache.update(key, ElasticSearchFingerprintCache.fingerprint("{\"name\":\"bar\"}")));
+        assertEquals(1, cache.getSkipped());
+    }
+
+    @Test
+    public void testRemovedEntryIsSentAgain() {
+        ElasticSearchFingerprintCache cache = new ElasticSearchFingerprintCache(1024);
+        long key = ElasticSearchFingerprintCache.key("people:Person", 42);
+        long fingerprint = ElasticSearchFingerprintCache.fingerprint("{\"name\":\"foo\"}");
+
+        cache.update(key, fingerprint);
+        cache.remove(key);
+        assertTrue(cache.update(key, fingerprint));
+    }
+
+    @Test
+    public void testKeysDifferBySpec() {
+        assertNotEquals(ElasticSearchFingerprintCache.key("people:Person", 42),
+                ElasticSearchFingerprintCache.key("places:Place", 42));
+    }
+}
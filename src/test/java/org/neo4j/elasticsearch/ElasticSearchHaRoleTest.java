@@ -0,0 +1,44 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.ImpermanentGraphDatabase;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchHaRoleTest {
+
+    public static class HaDatabase extends ImpermanentGraphDatabase {
+        volatile boolean master = false;
+
+        public boolean isMaster() {
+            return master;
+        }
+    }
+
+    @Test
+    public void testSingleInstanceHasNoRole() throws Exception {
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try {
+            assertNull(ElasticSearchHaRole.of(db));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void testFollowsRoleChanges() throws Exception {
+        HaDatabase db = new HaDatabase();
+        try {
+            ElasticSearchHaRole role = ElasticSearchHaRole.of(db);
+            assertFalse(role.isMaster());
+            db.master = true;
+            assertTrue(role.isMaster());
+        } finally {
+            db.shutdown();
+        }
+    }
+}
@@ -3,16 +3,19 @@ package org.neo4j.elasticsearch;
 import static org.junit.Assert.*;
 import io.searchbox.client.JestClient;
 import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.JestResult;
 import io.searchbox.client.config.HttpClientConfig;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
 import io.searchbox.indices.CreateIndex;
 import io.searchbox.indices.DeleteIndex;
+import io.searchbox.indices.settings.GetSettings;
 
 import java.io.Serializable;
 import java.text.ParseException;
 import java.util.Collections;
 
+import com.google.gson.JsonObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -82,6 +85,17 @@ public class ElasticSearchImportAppTest {
         assertEquals(new Integer(dataItems), result.getTotal());
     }
     
+    @Test
+    public void testBulkLoadRestoresSettings() throws Exception {
+        createTestData(10);
+        neo4jClient.evaluate("elasticsearch-index -b -s " + INDEX_SPEC);
+
+        JestResult settings = esClient.execute(new GetSettings.Builder().addIndex(INDEX).setParameter("flat_settings", true).build());
+        JsonObject indexSettings = settings.getJsonObject().getAsJsonObject(INDEX).getAsJsonObject("settings");
+        assertEquals("1s", indexSettings.get("index.refresh_interval").getAsString());
+        assertEquals("1", indexSettings.get("index.number_of_replicas").getAsString());
+    }
+
     @Test(expected=Exception.class)
     public void testBadSyntaxShouldThrow() throws Exception {
         neo4jClient.evaluate("elasticsearch-index -s index_name:Label(foo,bar");
@@ -0,0 +1,136 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.config.HttpClientConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.shell.impl.CollectingOutput;
+import org.neo4j.shell.impl.SameJvmClient;
+import org.neo4j.shell.kernel.GraphDatabaseShellServer;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchImportJobsTest {
+
+    private GraphDatabaseAPI db;
+    private GraphDatabaseShellServer server;
+    private ElasticSearchImportJobs jobs;
+
+    @Before
+    public void setUp() throws Exception {
+        db = (GraphDatabaseAPI) new TestGraphDatabaseFactory().newImpermanentDatabase();
+        server = new GraphDatabaseShellServer(db);
+        jobs = db.getDependencyResolver().resolveDependency(ElasticSearchExtension.class).getImportJobs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+        db.shutdown();
+    }
+
+    private ElasticSearchImportJob job() {
+        return job(-1);
+    }
+
+    /** A job without index specs, it never connects to ElasticSearch. */
+    private ElasticSearchImportJob job(int rate) {
+        JestClientFactory factory = new JestClientFactory();
+        factory.setHttpClientConfig(new HttpClientConfig.Builder("http://localhost:9200").build());
+        return new ElasticSearchImportJob(db, factory.getObject(), Collections.<Label, List<ElasticSearchIndexSpec>>emptyMap(),
+                ElasticSearchDocumentLimits.NONE, jobs.throttle(rate), false, false, StringLogger.DEV_NULL);
+    }
+
+    @Test
+    public void testImportsTheNodesOfTheLabel() throws Exception {
+        List<String> expected = new ArrayList<>();
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < 2500; i++) {
+                if (i % 2 == 0) {
+                    db.createNode();
+                } else {
+                    Node node = db.createNode(DynamicLabel.label("Person"));
+                    node.setProperty("name", "p" + i);
+                    expected.add("index people/Person/" + node.getId());
+                }
+            }
+            tx.success();
+        }
+        ElasticSearchStubClient client = new ElasticSearchStubClient();
+        ElasticSearchImportJob job = new ElasticSearchImportJob(db, client, ElasticSearchIndexSpecParser.parseIndexSpec("people:Person(name)"),
+                ElasticSearchDocumentLimits.NONE, jobs.throttle(0), false, false, StringLogger.DEV_NULL);
+        jobs.run(job);
+        assertEquals(job.toString(), ElasticSearchImportJob.State.DONE, job.getState());
+        assertEquals(expected, client.sent);
+    }
+
+    @Test
+    public void testJobStates() {
+        ElasticSearchImportJob job = jobs.add(job());
+        assertEquals(ElasticSearchImportJob.State.QUEUED, job.getState());
+        assertTrue(job.pause());
+        assertFalse(job.pause());
+        assertTrue(job.resume());
+        assertEquals(ElasticSearchImportJob.State.RUNNING, job.getState());
+        assertTrue(job.cancel());
+        assertFalse(job.resume());
+        assertFalse(job.cancel());
+        assertTrue(job.isFinished());
+        job.run(); // nothing left to do
+        assertEquals(ElasticSearchImportJob.State.CANCELLED, job.getState());
+    }
+
+    @Test
+    public void testJobsCommand() throws Exception {
+        assertTrue(evaluate("elasticsearch-jobs").contains("No import jobs"));
+        ElasticSearchImportJob job = jobs.add(job());
+        String id = String.valueOf(job.getId());
+        assertTrue(evaluate("elasticsearch-jobs").contains(id + " queued"));
+        assertTrue(evaluate("elasticsearch-jobs pause " + id).contains(id + " paused"));
+        assertTrue(evaluate("elasticsearch-jobs resume " + id).contains(id + " running"));
+        assertTrue(evaluate("elasticsearch-jobs cancel " + id).contains(id + " cancelled"));
+        assertTrue(evaluate("elasticsearch-jobs resume " + id).contains("Can't resume"));
+        assertTrue(evaluate("elasticsearch-jobs pause 999").contains("No import job 999"));
+    }
+
+    @Test
+    public void testLoadMonitorOnlyWhileLimitedJobsRun() throws Exception {
+        jobs.run(job(0));
+        assertFalse(jobs.isMonitoring());
+
+        ElasticSearchImportJob background = job(-1);
+        background.pause();
+        jobs.submit(background);
+        assertTrue(jobs.isMonitoring());
+        jobs.run(job(100));
+        assertTrue(jobs.isMonitoring()); // the background job is still there
+
+        background.cancel();
+        for (int i = 0; i < 100 && jobs.isMonitoring(); i++) {
+            Thread.sleep(50);
+        }
+        assertFalse(jobs.isMonitoring());
+    }
+
+    private String evaluate(String command) throws Exception {
+        CollectingOutput out = new CollectingOutput();
+        new SameJvmClient(Collections.<String, Serializable>emptyMap(), server, out).evaluate(command);
+        return out.asString();
+    }
+}
@@ -0,0 +1,70 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchImportThrottleTest {
+
+    @Test
+    public void testBacksOffUnderLoad() {
+        ElasticSearchImportThrottle throttle = new ElasticSearchImportThrottle(1000, 50, 100);
+        assertEquals(100, throttle.getRate());
+        for (int i = 0; i < 20; i++) {
+            throttle.adjust(10, 0);
+        }
+        assertEquals(1000, throttle.getRate());
+        assertFalse(throttle.isOverloaded());
+
+        assertEquals(500, throttle.adjust(80, 0));
+        assertTrue(throttle.isOverloaded());
+        assertEquals(250, throttle.adjust(10, 500));
+        for (int i = 0; i < 20; i++) {
+            throttle.adjust(200, 0);
+        }
+        assertEquals(10, throttle.getRate());
+        assertEquals(110, throttle.adjust(0, 0));
+    }
+
+    @Test
+    public void testUnlimited() {
+        ElasticSearchImportThrottle throttle = new ElasticSearchImportThrottle(0, 50, 100);
+        assertFalse(throttle.isLimited());
+        assertEquals(0, throttle.adjust(1000, 1000));
+        assertEquals(0, throttle.getRate());
+    }
+
+    @Test
+    public void testIgnoredSignals() {
+        ElasticSearchImportThrottle throttle = new ElasticSearchImportThrottle(100, 0, 0);
+        assertEquals(20, throttle.adjust(1000, 1000));
+    }
+
+    @Test
+    public void testMonitorMeasuresCommits() throws Exception {
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try {
+            ElasticSearchLoadMonitor monitor = ElasticSearchLoadMonitor.of(db);
+            db.registerTransactionEventHandler(monitor);
+            monitor.sample();
+            assertEquals(0, monitor.commitLatencyMillis(), 0);
+            for (int i = 0; i < 10; i++) {
+                try (Transaction tx = db.beginTx()) {
+                    db.createNode();
+                    tx.success();
+                }
+            }
+            Thread.sleep(1100);
+            monitor.sample();
+            assertTrue(monitor.commitLatencyMillis() > 0);
+            assertEquals(0, monitor.evictionsPerSecond(), 0);
+        } finally {
+            db.shutdown();
+        }
+    }
+}
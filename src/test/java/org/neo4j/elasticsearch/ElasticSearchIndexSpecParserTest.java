@@ -2,6 +2,7 @@ package org.neo4j.elasticsearch;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -10,7 +11,12 @@ import org.junit.Test;
 
 import static org.junit.Assert.*;
 
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
 
 public class ElasticSearchIndexSpecParserTest {
 
@@ -35,6 +41,64 @@ public class ElasticSearchIndexSpecParserTest {
         assertEquals(0, rv.size());
     }
 
+    @Test
+    public void testParsePredicates() throws ParseException {
+        Map<Label, List<ElasticSearchIndexSpec>> rv = ElasticSearchIndexSpecParser.parseIndexSpec(
+                "index_name:Label(foo,bar)[status=active,email?,!deleted,age>=18],other_index_name:OtherLabel(baz)");
+        ElasticSearchIndexSpec spec = rv.get(DynamicLabel.label("Label")).get(0);
+        assertEquals(4, spec.getPredicates().length);
+        assertEquals("n.`status` = 'active'", spec.getPredicates()[0].toCypher("n"));
+        assertEquals("has(n.`email`)", spec.getPredicates()[1].toCypher("n"));
+        assertEquals("NOT has(n.`deleted`)", spec.getPredicates()[2].toCypher("n"));
+        assertEquals("n.`age` >= 18", spec.getPredicates()[3].toCypher("n"));
+        assertEquals(0, rv.get(DynamicLabel.label("OtherLabel")).get(0).getPredicates().length);
+    }
+
+    @Test
+    public void testParseRouting() throws ParseException {
+        Map<Label, List<ElasticSearchIndexSpec>> rv = ElasticSearchIndexSpecParser.parseIndexSpec(
+                "index_name:Label(foo,bar)@tenant_id[status=active],other_index_name:OtherLabel(baz)");
+        ElasticSearchIndexSpec spec = rv.get(DynamicLabel.label("Label")).get(0);
+        assertEquals("tenant_id", spec.getRouting());
+        assertEquals(1, spec.getPredicates().length);
+        assertEquals(null, rv.get(DynamicLabel.label("OtherLabel")).get(0).getRouting());
+        assertFalse(spec.fingerprint(DynamicLabel.label("Label")).equals(
+                ElasticSearchIndexSpecParser.parseIndexSpec("index_name:Label(foo,bar)[status=active]")
+                        .get(DynamicLabel.label("Label")).get(0).fingerprint(DynamicLabel.label("Label"))));
+    }
+
+    @Test(expected=ParseException.class)
+    public void testPredicateBadSyntax() throws ParseException {
+        ElasticSearchIndexSpecParser.parseIndexSpec("index_name:Label(foo)[age>=old]");
+    }
+
+    @Test
+    public void testPredicatesMatch() throws ParseException {
+        ElasticSearchIndexSpec spec = new ElasticSearchIndexSpec("index_name", new HashSet<String>());
+        spec.setPredicates(ElasticSearchPredicate.parse("status='active', email?, !deleted, age>=18, score<2.5"));
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.createNode();
+            node.setProperty("status", "active");
+            node.setProperty("email", "foo@example.com");
+            node.setProperty("age", 18);
+            node.setProperty("score", 1.5);
+            assertTrue(spec.matches(node));
+
+            node.setProperty("age", 17L);
+            assertFalse(spec.matches(node));
+            node.setProperty("age", 30);
+            node.setProperty("deleted", true);
+            assertFalse(spec.matches(node));
+            node.removeProperty("deleted");
+            node.setProperty("status", "archived");
+            assertFalse(spec.matches(node));
+            tx.success();
+        } finally {
+            db.shutdown();
+        }
+    }
+
     @Test(expected=ParseException.class)
     public void testIndexSpecBadSyntaxDuplicateIndex() throws ParseException {
     	Map rv = ElasticSearchIndexSpecParser.parseIndexSpec("index_name:Label(foo,bar),index_name:Label(quux)");
@@ -0,0 +1,74 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchLabelScanTest {
+
+    private static final Label PERSON = DynamicLabel.label("Person");
+
+    private GraphDatabaseService db;
+    private List<Long> people = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < 10; i++) {
+                if (i % 3 == 0) {
+                    db.createNode();
+                } else {
+                    people.add(db.createNode(PERSON).getId());
+                }
+            }
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testPagesInNodeIdOrder() throws Exception {
+        ElasticSearchLabelScan scan = new ElasticSearchLabelScan(db, PERSON, 4, -1);
+        List<Long> read = new ArrayList<>();
+        for (List<Long> page = scan.next(); !page.isEmpty(); page = scan.next()) {
+            assertTrue(page.size() <= 4);
+            read.addAll(page);
+        }
+        assertEquals(people, read);
+        assertEquals((long) people.get(people.size() - 1), scan.last());
+    }
+
+    @Test
+    public void testResumesAfterTheLastId() throws Exception {
+        ElasticSearchLabelScan scan = new ElasticSearchLabelScan(db, PERSON, 3, people.get(1));
+        assertEquals(people.subList(2, 5), scan.next());
+        assertEquals(people.subList(5, 6), scan.next());
+        assertEquals(Collections.<Long>emptyList(), scan.next());
+
+        // nodes labeled later with a higher id are found on resume
+        long late;
+        try (Transaction tx = db.beginTx()) {
+            late = db.createNode(PERSON).getId();
+            tx.success();
+        }
+        assertEquals(asList(late), scan.next());
+    }
+}
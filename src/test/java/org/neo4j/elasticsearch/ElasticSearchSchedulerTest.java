@@ -0,0 +1,68 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.core.Delete;
+
+import org.junit.Test;
+import org.neo4j.helpers.collection.MapUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ElasticSearchSchedulerTest {
+
+    @Test
+    public void testBulkIsSharedByWeight() throws Exception {
+        ElasticSearchScheduler scheduler = new ElasticSearchScheduler(
+                MapUtil.<String, Integer>genericMap("people", 9, "audit", 1), Collections.<String, Long>emptyMap());
+        scheduler.offer(entries("audit", 100, 0));
+        scheduler.offer(entries("people", 10, 0));
+
+        List<ElasticSearchScheduler.Entry> batch = scheduler.poll(10, 0);
+        assertEquals(9, count(batch, "people"));
+        assertEquals(1, count(batch, "audit"));
+        assertEquals(100, scheduler.size());
+    }
+
+    @Test
+    public void testUnusedCapacityGoesToOtherIndexes() throws Exception {
+        ElasticSearchScheduler scheduler = new ElasticSearchScheduler(
+                MapUtil.<String, Integer>genericMap("people", 9, "audit", 1), Collections.<String, Long>emptyMap());
+        scheduler.offer(entries("audit", 100, 0));
+        scheduler.offer(entries("people", 2, 0));
+
+        List<ElasticSearchScheduler.Entry> batch = scheduler.poll(10, 0);
+        assertEquals(2, count(batch, "people"));
+        assertEquals(8, count(batch, "audit"));
+    }
+
+    @Test
+    public void testOverdueEntriesGoFirst() throws Exception {
+        ElasticSearchScheduler scheduler = new ElasticSearchScheduler(
+                MapUtil.<String, Integer>genericMap("people", 1, "audit", 100), MapUtil.<String, Long>genericMap("people", 500L));
+        scheduler.offer(entries("audit", 100, 1000));
+        scheduler.offer(entries("people", 5, 0));
+
+        List<ElasticSearchScheduler.Entry> batch = scheduler.poll(5, 1000);
+        assertEquals(5, count(batch, "people"));
+    }
+
+    private List<ElasticSearchScheduler.Entry> entries(String index, int count, long enqueued) {
+        List<ElasticSearchScheduler.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new ElasticSearchScheduler.Entry(
+                    new Delete.Builder(String.valueOf(i)).index(index).type("Label").build(), null, enqueued));
+        }
+        return entries;
+    }
+
+    private int count(List<ElasticSearchScheduler.Entry> batch, String index) {
+        int count = 0;
+        for (ElasticSearchScheduler.Entry entry : batch) {
+            if (index.equals(entry.action.getIndex())) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,90 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.config.HttpClientConfig;
+import io.searchbox.indices.CreateIndex;
+import io.searchbox.indices.DeleteIndex;
+import io.searchbox.indices.Refresh;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+public class ElasticSearchSearchResourceTest {
+
+    public static final String LABEL = "MyLabel";
+    public static final String INDEX = "my_index";
+    public static final String INDEX_SPEC = INDEX + ":" + LABEL + "(foo,bar)";
+    private GraphDatabaseService db;
+    private JestClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        JestClientFactory factory = new JestClientFactory();
+        factory.setHttpClientConfig(new HttpClientConfig
+                .Builder("http://localhost:9200")
+                .build());
+        client = factory.getObject();
+        db = new TestGraphDatabaseFactory()
+                .newImpermanentDatabaseBuilder()
+                .setConfig(stringMap(
+                        "elasticsearch.host_name", "http://localhost:9200",
+                        "elasticsearch.index_spec", INDEX_SPEC))
+                .newGraphDatabase();
+        client.execute(new CreateIndex.Builder(INDEX).build());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.execute(new DeleteIndex.Builder(INDEX).build());
+        client.shutdownClient();
+        db.shutdown();
+    }
+
+    @Test
+    public void testSearchReturnsNodes() throws Exception {
+        Transaction tx = db.beginTx();
+        org.neo4j.graphdb.Node node = db.createNode(DynamicLabel.label(LABEL));
+        node.setProperty("foo", "foobar");
+        node.setProperty("bar", "quux");
+        node.setProperty("baz", "not indexed");
+        tx.success();
+        tx.close();
+
+        Thread.sleep(1000); // wait for the async elasticsearch query to complete
+        client.execute(new Refresh.Builder().addIndex(INDEX).build());
+
+        Response response = new ElasticSearchSearchResource(db).search(INDEX, "foo:foobar", 10, "foo,baz", null);
+        assertEquals(200, response.getStatus());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+        JsonObject result = new JsonParser().parse(output.toString("UTF-8")).getAsJsonObject();
+        assertEquals(1, result.get("total").getAsInt());
+
+        JsonArray hits = result.getAsJsonArray("hits");
+        JsonObject hit = hits.get(0).getAsJsonObject();
+        assertEquals(node.getId(), hit.get("id").getAsLong());
+        JsonObject properties = hit.getAsJsonObject("properties");
+        assertEquals("foobar", properties.get("foo").getAsString());
+        assertEquals("not indexed", properties.get("baz").getAsString());
+        assertFalse(properties.has("bar"));
+    }
+}
@@ -0,0 +1,169 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.Action;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.cluster.NodesInfo;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+import io.searchbox.params.Parameters;
+
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ElasticSearchShardRouterTest {
+
+    private static final String NODES = "{\"nodes\":{" +
+            "\"n1\":{\"http_address\":\"inet[/10.0.0.1:9200]\"}," +
+            "\"n2\":{\"http_address\":\"inet[es2/10.0.0.2:9200]\"}}}";
+    private static final String NODE_1 = "{\"nodes\":{" +
+            "\"n1\":{\"http_address\":\"inet[/10.0.0.1:9200]\"}}}";
+    private static final String STATE = "{\"routing_table\":{\"indices\":{\"people_1\":{\"shards\":{" +
+            "\"0\":[{\"state\":\"STARTED\",\"primary\":true,\"node\":\"n1\"},{\"state\":\"STARTED\",\"primary\":false,\"node\":\"n2\"}]," +
+            "\"1\":[{\"state\":\"STARTED\",\"primary\":false,\"node\":\"n1\"},{\"state\":\"STARTED\",\"primary\":true,\"node\":\"n2\"}]}}}}," +
+            "\"metadata\":{\"indices\":{\"people_1\":{\"aliases\":[\"people\"]}}}}";
+
+    /** Answers the nodes info and cluster state requests, or fails every request. */
+    private static class StubClient implements JestClient {
+        boolean available = true;
+        int requests = 0;
+        String nodes = NODES;
+        String stateUri;
+
+        @Override
+        public <T extends JestResult> T execute(Action<T> action) throws Exception {
+            requests++;
+            if (!available) throw new IllegalStateException("unreachable");
+            JestResult result = new JestResult(new Gson());
+            result.setSucceeded(true);
+            if (!(action instanceof NodesInfo)) stateUri = action.getURI();
+            result.setJsonObject(new JsonParser().parse(action instanceof NodesInfo ? nodes : STATE).getAsJsonObject());
+            return (T) result;
+        }
+
+        @Override
+        public <T extends JestResult> void executeAsync(Action<T> action, JestResultHandler<T> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdownClient() {
+        }
+
+        @Override
+        public void setServers(Set<String> servers) {
+        }
+    }
+
+    @Test
+    public void testShardMatchesElasticSearch() {
+        // DJB hash of "1" is 5381 * 33 + '1' = 177622
+        assertEquals(177622 % 5, ElasticSearchShardRouter.shard("1", 5));
+        assertEquals(0, ElasticSearchShardRouter.shard("1", 2));
+        assertEquals(1, ElasticSearchShardRouter.shard("2", 2));
+        for (int i = 0; i < 1000; i++) {
+            int shard = ElasticSearchShardRouter.shard("a long id that overflows the hash " + i, 7);
+            assertEquals(true, shard >= 0 && shard < 7);
+        }
+    }
+
+    @Test
+    public void testRoutingValue() {
+        assertEquals("1", ElasticSearchShardRouter.routingValue(new Delete.Builder("1").index("people").type("Person").build()));
+        assertEquals("acme", ElasticSearchShardRouter.routingValue(new Delete.Builder("1").index("people").type("Person")
+                .setParameter(Parameters.ROUTING, "acme").build()));
+    }
+
+    @Test
+    public void testHttpUrl() {
+        assertEquals("http://10.0.0.1:9200", ElasticSearchShardRouter.httpUrl("inet[/10.0.0.1:9200]"));
+        assertEquals("http://10.0.0.2:9200", ElasticSearchShardRouter.httpUrl("inet[es2/10.0.0.2:9200]"));
+        assertEquals("http://10.0.0.3:9200", ElasticSearchShardRouter.httpUrl("10.0.0.3:9200"));
+    }
+
+    @Test
+    public void testSplitByPrimaryNode() {
+        StubClient client = new StubClient();
+        ElasticSearchShardRouter router = new ElasticSearchShardRouter(client, null, StringLogger.DEV_NULL);
+        List<BulkableAction> actions = new ArrayList<>();
+        actions.add(new Index.Builder("{}").index("people").type("Person").id("1").build());
+        actions.add(new Index.Builder("{}").index("people_1").type("Person").id("2").build());
+        actions.add(new Delete.Builder("3").index("people").type("Person").build());
+        actions.add(new Index.Builder("{}").index("places").type("Place").id("4").build());
+        try {
+            Map<JestClient, List<BulkableAction>> split = router.split(actions);
+            assertEquals(3, split.size());
+            List<List<BulkableAction>> bulks = new ArrayList<>(split.values());
+            List<JestClient> targets = new ArrayList<>(split.keySet());
+            assertEquals("1", bulks.get(0).get(0).getId());
+            assertEquals("3", bulks.get(0).get(1).getId()); // 177624 is even
+            assertEquals("2", bulks.get(1).get(0).getId());
+            assertSame(client, targets.get(2));
+            assertEquals("4", bulks.get(2).get(0).getId());
+            assertNotSame(targets.get(0), targets.get(1));
+            assertEquals(2, client.requests);
+
+            router.split(actions);
+            assertEquals(2, client.requests); // cached
+
+            client.available = false;
+            router.invalidate();
+            split = router.split(actions);
+            assertEquals(1, split.size()); // falls back to the configured host
+            assertSame(client, split.keySet().iterator().next());
+        } finally {
+            router.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadsOnlyRoutingTableAndMetadata() {
+        StubClient client = new StubClient();
+        ElasticSearchShardRouter router = new ElasticSearchShardRouter(client, new LinkedHashSet<>(Arrays.asList("people", "places")), StringLogger.DEV_NULL);
+        try {
+            router.refresh();
+            assertEquals("/_cluster/state/routing_table,metadata/people,places", client.stateUri);
+        } finally {
+            router.shutdown();
+        }
+        assertEquals("/_cluster/state/routing_table,metadata", new ElasticSearchShardRouter.RoutingState(null).getURI());
+    }
+
+    @Test
+    public void testDropsClientsOfNodesThatLeft() {
+        StubClient client = new StubClient();
+        ElasticSearchShardRouter router = new ElasticSearchShardRouter(client, null, StringLogger.DEV_NULL);
+        List<BulkableAction> actions = new ArrayList<>();
+        actions.add(new Index.Builder("{}").index("people").type("Person").id("2").build());
+        try {
+            JestClient n2 = router.split(actions).keySet().iterator().next();
+            assertNotSame(client, n2);
+
+            client.nodes = NODE_1;
+            router.invalidate();
+            assertSame(client, router.split(actions).keySet().iterator().next());
+
+            client.nodes = NODES;
+            router.invalidate();
+            assertNotSame(n2, router.split(actions).keySet().iterator().next()); // a new client
+        } finally {
+            router.shutdown();
+        }
+    }
+}
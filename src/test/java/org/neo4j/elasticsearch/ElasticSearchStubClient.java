@@ -0,0 +1,83 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.Action;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.DeleteByQuery;
+import io.searchbox.core.Get;
+import io.searchbox.core.Index;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the documents stored with index requests outside bulks, such as backfill states, and
+ * records the documents sent in bulks and deletes by query, in the order they were sent.
+ */
+class ElasticSearchStubClient implements JestClient {
+    final Map<String, String> states = new HashMap<>();
+    final List<String> sent = new ArrayList<>();
+    private final Gson gson = new Gson();
+
+    @Override
+    public <T extends JestResult> T execute(Action<T> action) throws Exception {
+        if (action instanceof Get) {
+            String state = states.get(((Get) action).getId());
+            return state == null
+                    ? action.createNewElasticSearchResult("{\"found\":false}", 404, "Not Found", gson)
+                    : action.createNewElasticSearchResult("{\"found\":true,\"_source\":" + state + "}", 200, "OK", gson);
+        }
+        if (action instanceof Index) {
+            states.put(((Index) action).getId(), String.valueOf(action.getData(gson)));
+        } else if (action instanceof DeleteByQuery) {
+            sent.add("delete_by_query " + action.getURI());
+        } else if (action instanceof Bulk) {
+            for (String line : String.valueOf(action.getData(gson)).split("\n")) {
+                JsonObject json = new JsonParser().parse(line).getAsJsonObject();
+                for (String method : Arrays.asList("index", "delete")) {
+                    if (!json.has(method)) continue;
+                    JsonObject meta = json.getAsJsonObject(method);
+                    sent.add(method + " " + meta.get("_index").getAsString() + "/" + meta.get("_type").getAsString()
+                            + "/" + meta.get("_id").getAsString()
+                            + (meta.has("_routing") ? "@" + meta.get("_routing").getAsString() : ""));
+                }
+            }
+        }
+        return action.createNewElasticSearchResult("{}", 200, "OK", gson);
+    }
+
+    @Override
+    public <T extends JestResult> void executeAsync(Action<T> action, JestResultHandler<T> handler) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void shutdownClient() {
+    }
+
+    @Override
+    public void setServers(Set<String> servers) {
+    }
+
+    void store(String id, String fingerprint, long next) {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("fingerprint", fingerprint);
+        state.put("next_node", next);
+        states.put(id, gson.toJson(state));
+    }
+
+    Map state(String id) {
+        return gson.fromJson(states.get(id), Map.class);
+    }
+}
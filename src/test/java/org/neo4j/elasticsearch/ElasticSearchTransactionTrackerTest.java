@@ -0,0 +1,128 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchTransactionTrackerTest {
+
+    private GraphDatabaseAPI db;
+    private ElasticSearchTransactionTracker tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        db = (GraphDatabaseAPI) new TestGraphDatabaseFactory().newImpermanentDatabase();
+        tracker = new ElasticSearchTransactionTracker(db.getDependencyResolver().resolveDependency(TransactionIdStore.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testDeliveredIsHeldBackByPendingTransactions() throws Exception {
+        long start = tracker.lastCommitted();
+        ElasticSearchTransactionTracker.Ticket ticket = tracker.begin();
+        commit();
+        commit();
+        assertEquals(start, tracker.delivered());
+
+        tracker.done(ticket);
+        assertEquals(start + 2, tracker.delivered());
+    }
+
+    @Test
+    public void testFailedTicketsStayPinned() throws Exception {
+        long start = tracker.lastCommitted();
+        ElasticSearchTransactionTracker.Ticket ticket = tracker.begin();
+        commit();
+        tracker.failed(ticket);
+
+        assertTrue(tracker.hasFailures());
+        assertEquals(start, tracker.delivered());
+
+        tracker.done(tracker.failure());
+        assertFalse(tracker.hasFailures());
+        assertEquals(start + 1, tracker.delivered());
+    }
+
+    @Test
+    public void testFailuresAreMergedIntoOneTicket() throws Exception {
+        long start = tracker.lastCommitted();
+        ElasticSearchTransactionTracker.Ticket first = tracker.begin();
+        commit();
+        ElasticSearchTransactionTracker.Ticket second = tracker.begin();
+        commit();
+        tracker.failed(second);
+        tracker.failed(first);
+
+        ElasticSearchTransactionTracker.Ticket failure = tracker.failure();
+        assertEquals(start, failure.baseline);
+        assertEquals(start, tracker.delivered());
+
+        // a failure after the replay started isn't covered by it
+        ElasticSearchTransactionTracker.Ticket third = tracker.begin();
+        commit();
+        tracker.failed(third);
+        tracker.done(failure);
+        assertTrue(tracker.hasFailures());
+        assertEquals(start, tracker.delivered());
+
+        tracker.done(tracker.failure());
+        assertFalse(tracker.hasFailures());
+        assertEquals(start + 3, tracker.delivered());
+    }
+
+    @Test
+    public void testLag() throws Exception {
+        assertEquals(0, tracker.lagTransactions());
+        assertEquals(0, tracker.lagMillis());
+
+        ElasticSearchTransactionTracker.Ticket ticket = tracker.begin();
+        commit();
+        commit();
+        Thread.sleep(20);
+        assertEquals(2, tracker.lagTransactions());
+        assertTrue(tracker.lagMillis() >= 20);
+
+        tracker.done(ticket);
+        assertEquals(0, tracker.lagTransactions());
+        assertEquals(0, tracker.lagMillis());
+    }
+
+    @Test
+    public void testAwaitDelivered() throws Exception {
+        final ElasticSearchTransactionTracker.Ticket ticket = tracker.begin();
+        commit();
+        long txId = tracker.lastCommitted();
+        assertFalse(tracker.awaitDelivered(txId, 50));
+
+        Thread release = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                tracker.done(ticket);
+            }
+        };
+        release.start();
+        assertTrue(tracker.awaitDelivered(txId, 5000));
+        release.join();
+    }
+
+    private void commit() {
+        Transaction tx = db.beginTx();
+        db.createNode();
+        tx.success();tx.close();
+    }
+}